@@ -5,7 +5,6 @@
 #LOCAL_JAVA_LIBRARIES := org.dirtyunicorns.utils
 #
 #LOCAL_STATIC_JAVA_LIBRARIES := \
-#    trail-drawing \
 #    rebound
 #
 #LOCAL_SRC_FILES := $(call all-java-files-under, src)
@@ -32,6 +32,9 @@ import com.android.systemui.navigation.Res;
 import com.android.systemui.navigation.NavigationController.NavbarOverlayResources;
 import com.android.systemui.navigation.pulse.PulseController;
 import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
+import com.android.systemui.navigation.pulse.PulseView;
+import com.android.systemui.navigation.utils.ActionExecutor;
+import com.android.systemui.navigation.utils.ActionIntentCache;
 import com.android.systemui.navigation.utils.SmartObserver;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.statusbar.phone.PhoneStatusBar;
@@ -49,7 +52,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
@@ -62,12 +64,13 @@ import android.view.Surface;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.view.animation.Animation;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 
 import cyanogenmod.providers.CMSettings;
 
-public abstract class BaseNavigationBar extends LinearLayout implements Navigator, PulseObserver {
+public abstract class BaseNavigationBar extends LinearLayout implements Navigator {
     final static String TAG = "PhoneStatusBar/BaseNavigationBar";
     public final static boolean DEBUG = false;
     public static final boolean NAVBAR_ALWAYS_AT_RIGHT = true;
@@ -89,6 +92,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
     protected View[] mRotatedViews = new View[4];
     protected View mCurrentView = null;
     protected FrameLayout mRot0, mRot90;
+    protected PulseView mPulseView0, mPulseView90;
     protected int mDisabledFlags = 0;
     protected int mNavigationIconHints = 0;
     protected boolean mVertical;
@@ -144,6 +148,66 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         }
     }
 
+    // Pulse draws into the overlay of the current rotation, the bar itself
+    // only handles start and stop
+    private final PulseObserver mPulseObserver = new PulseObserver() {
+        @Override
+        public int getWidth() {
+            final View v = getCurrentPulseView();
+            return v != null ? v.getWidth() : 0;
+        }
+
+        @Override
+        public int getHeight() {
+            final View v = getCurrentPulseView();
+            return v != null ? v.getHeight() : 0;
+        }
+
+        @Override
+        public void postInvalidate() {
+            final View v = getCurrentPulseView();
+            if (v != null) {
+                v.postInvalidate();
+            }
+        }
+
+        @Override
+        public void postInvalidateOnAnimation() {
+            final View v = getCurrentPulseView();
+            if (v != null) {
+                v.postInvalidateOnAnimation();
+            }
+        }
+
+        @Override
+        public void postInvalidateDelayed(long delayMilliseconds) {
+            final View v = getCurrentPulseView();
+            if (v != null) {
+                v.postInvalidateDelayed(delayMilliseconds);
+            }
+        }
+
+        @Override
+        public void setPulseAlpha(float alpha) {
+            if (mPulseView0 != null) {
+                mPulseView0.setAlpha(alpha);
+            }
+            if (mPulseView90 != null) {
+                mPulseView90.setAlpha(alpha);
+            }
+        }
+
+        @Override
+        public boolean onStartPulse(Animation animatePulseIn) {
+            return BaseNavigationBar.this.onStartPulse(animatePulseIn);
+        }
+
+        @Override
+        public void onStopPulse(Animation animatePulseOut) {
+            BaseNavigationBar.this.onStopPulse(animatePulseOut);
+        }
+    };
+
     public BaseNavigationBar(Context context) {
         this(context, null);
     }
@@ -165,6 +229,9 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
 
     protected void onKeyguardShowing(boolean showing){}
 
+    // implementation specific state for dumpsys
+    protected void onDump(FileDescriptor fd, PrintWriter pw, String[] args) {}
+
     public void abortCurrentGesture(){}
 
     public void setMenuVisibility(final boolean show) {}
@@ -177,6 +244,15 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
 
     public void onRecreateStatusbar() {}
 
+    // return false to immediately begin Pulse
+    // return true to do pre-processing. Implementation MUST
+    // call startDrawing() after processing
+    public boolean onStartPulse(Animation animatePulseIn) {
+        return false;
+    }
+
+    public void onStopPulse(Animation animatePulseOut) {}
+
     public void setResourceMap(NavbarOverlayResources resourceMap) {
         mResourceMap = resourceMap;
         getBarTransitions().updateResources(mResourceMap);
@@ -195,7 +271,13 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
 	@Override
 	public void setControllers(PulseController pulseController) {
 	    mPulse = pulseController;
-	    mPulse.setPulseObserver(this);
+	    if (mPulseView0 != null) {
+	        mPulseView0.setPulseController(mPulse);
+	    }
+	    if (mPulseView90 != null) {
+	        mPulseView90.setPulseController(mPulse);
+	    }
+	    mPulse.setPulseObserver(mPulseObserver);
 	}
 
     @Override
@@ -351,6 +433,32 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         return mCurrentView;
     }
 
+    protected PulseView getCurrentPulseView() {
+        return mCurrentView == mRot90 ? mPulseView90 : mPulseView0;
+    }
+
+    // an overlay coming back keeps the size it had when it went away and
+    // won't see onSizeChanged, Pulse may have sized for the other one since
+    private void updatePulseSize() {
+        final PulseView v = getCurrentPulseView();
+        if (mPulse != null && v != null && v.getWidth() > 0 && v.getHeight() > 0) {
+            mPulse.onSizeChanged(v.getWidth(), v.getHeight(), 0, 0);
+        }
+    }
+
+    // Pulse overlays go under everything else in each rotation, same as
+    // when the bar drew Pulse behind its children
+    protected void addPulseViews() {
+        mPulseView0 = new PulseView(getContext());
+        mRot0.addView(mPulseView0, 0);
+        mPulseView90 = new PulseView(getContext());
+        mRot90.addView(mPulseView90, 0);
+        if (mPulse != null) {
+            mPulseView0.setPulseController(mPulse);
+            mPulseView90.setPulseController(mPulse);
+        }
+    }
+
     public View getHiddenView() {
         if (mCurrentView.equals(mRot0)) {
             return mRot90;
@@ -422,6 +530,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         }
         mCurrentView = mRotatedViews[rot];
         mCurrentView.setVisibility(View.VISIBLE);
+        updatePulseSize();
 
         if (DEBUG) {
             Log.d(TAG, "reorient(): rot=" + mDisplay.getRotation());
@@ -437,6 +546,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         mRotatedViews[Surface.ROTATION_90] = mRot90;
         mRotatedViews[Surface.ROTATION_270] = mRotatedViews[Surface.ROTATION_90];
         mCurrentView = mRotatedViews[Surface.ROTATION_0];
+        addPulseViews();
     }
 
     public void setDisabledFlags(int disabledFlags, boolean force) {
@@ -501,6 +611,8 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
 //        addBatteryBarLayout(mRot90);
         mRot90.addView(rot90NavButton);
 
+        addPulseViews();
+
         addView(mRot0);
         addView(mRot90);
 
@@ -556,20 +668,9 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
             notifyVerticalChangedListener(newVertical);
         }
         postCheckForInvalidLayout("sizeChanged");
-        if (mPulse != null) {
-            mPulse.onSizeChanged(w, h, oldw, oldh);
-        }
         super.onSizeChanged(w, h, oldw, oldh);
     }
 
-    @Override
-    public void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        if (mPulse != null) {
-            mPulse.onDraw(canvas);
-        }
-    }
-
     @Override
     public Handler getHandler() {
         return mHandler;
@@ -639,6 +740,13 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
                         mCurrentView.getWidth(), mCurrentView.getHeight(),
                         visibilityToString(mCurrentView.getVisibility())));
 
+        if (mPulse != null) {
+            mPulse.dump(pw, args);
+        }
+        ActionExecutor.getInstance().dump(pw);
+        ActionIntentCache.getInstance(getContext()).dump(pw);
+        onDump(fd, pw, args);
+
         pw.println("    }");
     }
 
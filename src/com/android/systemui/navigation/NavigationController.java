@@ -36,6 +36,7 @@ import com.android.systemui.navigation.NavigationController;
 import com.android.systemui.navigation.Navigator;
 import com.android.systemui.navigation.pulse.PulseController;
 import com.android.systemui.navigation.smartbar.SmartBarView;
+import com.android.systemui.navigation.utils.ActionIntentCache;
 import com.android.systemui.statusbar.phone.PhoneStatusBar;
 import com.android.systemui.R;
 
@@ -179,6 +180,11 @@ public class NavigationController implements PackageChangedListener {
         return mNavigationBarView;
     }
 
+    // other SystemUI surfaces register here for Pulse spectrum frames
+    public PulseController getPulseController() {
+        return mPulseController;
+    }
+
     public void updateNavbarOverlay(Resources res) {
         if (res == null) return;
         mResourceMap.updateResources(res);
@@ -339,6 +345,7 @@ public class NavigationController implements PackageChangedListener {
 
     @Override
     public void onPackageChanged(String pkg, PackageState state) {
+        ActionIntentCache.getInstance(mContext).onPackageChanged(pkg);
         if (state == PackageState.PACKAGE_REMOVED
                 || state == PackageState.PACKAGE_CHANGED) {
             final Context ctx = mContext;
@@ -32,6 +32,8 @@ import java.util.Map;
 import java.util.Set;
 
 import com.android.systemui.navigation.fling.FlingGestureHandler.Swipeable;
+import com.android.systemui.navigation.utils.ActionExecutor;
+import com.android.systemui.navigation.utils.ActionIntentCache;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
 import com.android.internal.utils.du.ActionConstants;
 import com.android.internal.utils.du.ActionHandler;
@@ -57,33 +59,95 @@ public class FlingActionHandler implements Swipeable, SmartObservable {
                             .getUri()));
     }
 
-    private Map<String, ActionConfig> mActionMap = new HashMap<String, ActionConfig>();
+    // effective action of every gesture slot, compiled by loadConfigs()
+    private final SlotAction[] mSlotActions = new SlotAction[FlingGestures.COUNT];
     private View mHost;
     private Context mContext;
-    private boolean isDoubleTapEnabled;
+    // can a tap on this side turn into a double tap that does something
+    private boolean mDoubleTapLeftEnabled;
+    private boolean mDoubleTapRightEnabled;
     private boolean mKeyguardShowing;
+    private final FlingLatencyStats mLatencyStats;
 
-    public FlingActionHandler(Context context, View host) {
+    /*
+     * What a gesture slot fires, left/right fallback already applied
+     */
+    private static final class SlotAction {
+        final ActionConfig config;
+        // the task string handed to ActionHandler
+        final String action;
+        final boolean allowedOnKeyguard;
+        final boolean isRecents;
+        // borrowed from the other side, the slot itself is unset
+        final boolean isFallback;
+
+        SlotAction(ActionConfig config, boolean isFallback) {
+            this.config = config;
+            this.isFallback = isFallback;
+            action = config.getAction();
+            // only back is allowed in keyguard
+            allowedOnKeyguard = TextUtils.equals(action, ActionHandler.SYSTEMUI_TASK_BACK);
+            isRecents = config.isActionRecents();
+        }
+    }
+
+    public FlingActionHandler(Context context, View host, FlingLatencyStats latencyStats) {
         mContext = context;
         mHost = host;
+        mLatencyStats = latencyStats;
         loadConfigs();
     }
 
     void loadConfigs() {
-        mActionMap.clear();
+        final Map<String, ActionConfig> actionMap = new HashMap<String, ActionConfig>();
         ArrayList<ButtonConfig> configs = Config.getConfig(mContext,
                 ActionConstants.getDefaults(ActionConstants.FLING));
         for (Map.Entry<String, ConfigMap> entry : ActionConstants
                 .getDefaults(ActionConstants.FLING).getActionMap().entrySet()) {
             ButtonConfig button = configs.get(entry.getValue().button);
             ActionConfig action = button.getActionConfig(entry.getValue().action);
-            mActionMap.put(entry.getKey(), action);
+            actionMap.put(entry.getKey(), action);
+        }
+        for (int slot = 0; slot < FlingGestures.COUNT; slot++) {
+            ActionConfig action = actionMap.get(FlingGestures.getTag(slot));
+            final int fallback = FlingGestures.getFallback(slot);
+            boolean isFallback = false;
+            if (hasNoAction(action) && fallback != FlingGestures.NONE) {
+                action = actionMap.get(FlingGestures.getTag(fallback));
+                isFallback = true;
+            }
+            mSlotActions[slot] = hasNoAction(action) ? null : new SlotAction(action, isFallback);
+        }
+        updateDoubleTapEnabled();
+        prefetchIntents();
+    }
+
+    private void prefetchIntents() {
+        final ArrayList<String> actions = new ArrayList<String>();
+        for (SlotAction action : mSlotActions) {
+            if (action != null) {
+                actions.add(action.action);
+            }
         }
-        isDoubleTapEnabled = !((ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG))
-                .hasNoAction()
-                || !((ActionConfig) mActionMap.get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG))
-                        .hasNoAction();
+        ActionIntentCache.getInstance(mContext).prefetch(actions);
+    }
+
+    private static boolean hasNoAction(ActionConfig action) {
+        return action == null || action.hasNoAction();
+    }
+
+    /*
+     * A side only waits for a second tap if its own double tap is set and
+     * allowed right now. Falling back to the other side's double tap is for
+     * dispatch only, otherwise one binding would slow taps on both sides
+     */
+    private void updateDoubleTapEnabled() {
+        mDoubleTapLeftEnabled = isSlotBound(FlingGestures.DOUBLE_LEFT_TAP);
+        mDoubleTapRightEnabled = isSlotBound(FlingGestures.DOUBLE_RIGHT_TAP);
+    }
+
+    private boolean isSlotBound(int slot) {
+        return isSlotFireable(slot) && !mSlotActions[slot].isFallback;
     }
 
     public void setKeyguardShowing(boolean showing) {
@@ -91,125 +155,107 @@ public class FlingActionHandler implements Swipeable, SmartObservable {
             return;
         }
         mKeyguardShowing = showing;
+        updateDoubleTapEnabled();
     }
 
-    public void fireAction(ActionConfig action) {
-        if (action == null || action.hasNoAction()) {
-            return;
-        }
-        final String theAction = action.getAction();
-        // only back is allowed in keyguard
-        if (mKeyguardShowing
-                && (!TextUtils.equals(theAction, ActionHandler.SYSTEMUI_TASK_BACK))) {
+    private boolean isSlotFireable(int slot) {
+        final SlotAction action = mSlotActions[slot];
+        return action != null && (!mKeyguardShowing || action.allowedOnKeyguard);
+    }
+
+    private void fireSlot(int slot) {
+        final SlotAction action = mSlotActions[slot];
+        if (action == null || (mKeyguardShowing && !action.allowedOnKeyguard)) {
             return;
         }
         mHost.performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
         mHost.playSoundEffect(SoundEffectConstants.CLICK);
-        ActionHandler.performTask(mContext, theAction);
+        mLatencyStats.onTaskStart();
+        ActionExecutor.getInstance().execute(mContext, action.action);
+        mLatencyStats.onTaskEnd();
+    }
+
+    @Override
+    public void onSwipePredicted(int slot, float confidence) {
+        if (!isSlotFireable(slot)) {
+            return;
+        }
+        // warm up what we can before the finger lifts
+        if (mSlotActions[slot].isRecents) {
+            ActionHandler.preloadRecentApps();
+        }
     }
 
     @Override
-    public boolean onDoubleTapEnabled() {
-        return isDoubleTapEnabled;
+    public boolean onDoubleTapEnabled(boolean isRight) {
+        return isRight ? mDoubleTapRightEnabled : mDoubleTapLeftEnabled;
     }
 
     @Override
     public void onShortLeftSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_SHORT_LEFT_TAG));
+        fireSlot(FlingGestures.SHORT_LEFT_SWIPE);
     }
 
     @Override
     public void onLongLeftSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_LONG_LEFT_TAG));
+        fireSlot(FlingGestures.LONG_LEFT_SWIPE);
     }
 
     @Override
     public void onShortRightSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_SHORT_RIGHT_TAG));
+        fireSlot(FlingGestures.SHORT_RIGHT_SWIPE);
     }
 
     @Override
     public void onLongRightSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_LONG_RIGHT_TAG));
+        fireSlot(FlingGestures.LONG_RIGHT_SWIPE);
     }
 
     @Override
     public void onUpRightSwipe() {
-        ActionConfig left_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_LEFT_UP_TAG);
-        ActionConfig right_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_RIGHT_UP_TAG);
-        fireAction(!right_swipe.hasNoAction() ? right_swipe : left_swipe);
+        fireSlot(FlingGestures.UP_RIGHT_SWIPE);
     }
 
     @Override
     public void onUpLeftSwipe() {
-        ActionConfig left_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_LEFT_UP_TAG);
-        ActionConfig right_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_RIGHT_UP_TAG);
-        fireAction(!left_swipe.hasNoAction() ? left_swipe : right_swipe);
+        fireSlot(FlingGestures.UP_LEFT_SWIPE);
     }
 
     @Override
     public void onSingleLeftPress() {
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_LEFT_TAP_TAG);
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG);
-        fireAction(!left_tap.hasNoAction() ? left_tap : right_tap);
+        fireSlot(FlingGestures.SINGLE_LEFT_TAP);
     }
 
     @Override
     public void onSingleRightPress() {
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG);
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_LEFT_TAP_TAG);
-        fireAction(!right_tap.hasNoAction() ? right_tap : left_tap);
+        fireSlot(FlingGestures.SINGLE_RIGHT_TAP);
     }
 
     @Override
     public void onDoubleLeftTap() {
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG);
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG);
-        fireAction(!left_tap.hasNoAction() ? left_tap : right_tap);
+        fireSlot(FlingGestures.DOUBLE_LEFT_TAP);
     }
 
     @Override
     public void onDoubleRightTap() {
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG);
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG);
-        fireAction(!right_tap.hasNoAction() ? right_tap : left_tap);
+        fireSlot(FlingGestures.DOUBLE_RIGHT_TAP);
     }
 
     @Override
     public void onLongLeftPress() {
-        ActionConfig left_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_LEFT_PRESS_TAG);
-        ActionConfig right_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_RIGHT_PRESS_TAG);
         if (ActionHandler.isLockTaskOn()) {
             ActionHandler.turnOffLockTask();
         } else {
-            fireAction(!left_long.hasNoAction() ? left_long : right_long);
+            fireSlot(FlingGestures.LONG_LEFT_PRESS);
         }
     }
 
     @Override
     public void onLongRightPress() {
-        ActionConfig right_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_RIGHT_PRESS_TAG);
-        ActionConfig left_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_LEFT_PRESS_TAG);
         if (ActionHandler.isLockTaskOn()) {
             ActionHandler.turnOffLockTask();
         } else {
-            fireAction(!right_long.hasNoAction() ? right_long : left_long);
+            fireSlot(FlingGestures.LONG_RIGHT_PRESS);
         }
     }
 
@@ -22,10 +22,8 @@ import com.android.systemui.R;
 
 import android.content.Context;
 import android.os.Handler;
-import android.os.Message;
 import android.view.InputEventConsistencyVerifier;
 import android.view.MotionEvent;
-import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
 
 /**
@@ -66,9 +64,9 @@ public class FlingGestureDetector {
          * feedback to the user to let them know that their action has been
          * recognized i.e. highlight an element.
          *
-         * @param e The down motion event
+         * @param down Snapshot of the down motion event
          */
-        void onShowPress(MotionEvent e);
+        void onShowPress(GestureSnapshot down);
 
         /**
          * Notified when a tap occurs with the up {@link MotionEvent}
@@ -84,32 +82,32 @@ public class FlingGestureDetector {
          * current move {@link MotionEvent}. The distance in x and y is also supplied for
          * convenience.
          *
-         * @param e1 The first down motion event that started the scrolling.
+         * @param down Snapshot of the first down motion event that started the scrolling.
          * @param e2 The move motion event that triggered the current onScroll.
          * @param distanceX The distance along the X axis that has been scrolled since the last
-         *              call to onScroll. This is NOT the distance between {@code e1}
+         *              call to onScroll. This is NOT the distance between {@code down}
          *              and {@code e2}.
          * @param distanceY The distance along the Y axis that has been scrolled since the last
-         *              call to onScroll. This is NOT the distance between {@code e1}
+         *              call to onScroll. This is NOT the distance between {@code down}
          *              and {@code e2}.
          * @return true if the event is consumed, else false
          */
-        boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY);
+        boolean onScroll(GestureSnapshot down, MotionEvent e2, float distanceX, float distanceY);
 
         /**
          * Notified when a long press occurs with the initial on down {@link MotionEvent}
          * that trigged it.
          *
-         * @param e The initial on down motion event that started the longpress.
+         * @param down Snapshot of the initial on down motion event that started the longpress.
          */
-        void onLongPress(MotionEvent e);
+        void onLongPress(GestureSnapshot down);
 
         /**
          * Notified of a fling event when it occurs with the initial on down {@link MotionEvent}
          * and the matching up {@link MotionEvent}. The calculated velocity is supplied along
          * the x and y axis in pixels per second.
          *
-         * @param e1 The first down motion event that started the fling.
+         * @param down Snapshot of the first down motion event that started the fling.
          * @param e2 The move motion event that triggered the current onFling.
          * @param velocityX The velocity of this fling measured in pixels per second
          *              along the x axis.
@@ -117,7 +115,7 @@ public class FlingGestureDetector {
          *              along the y axis.
          * @return true if the event is consumed, else false
          */
-        boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY);
+        boolean onFling(GestureSnapshot down, MotionEvent e2, float velocityX, float velocityY);
     }
 
     /**
@@ -133,18 +131,20 @@ public class FlingGestureDetector {
          * first tap is not followed by a second tap leading to a double-tap
          * gesture.
          *
-         * @param e The down motion event of the single-tap.
+         * @param e Snapshot of the down motion event of the single-tap, or of the
+         *          up if the tap was confirmed when the finger lifted.
          * @return true if the event is consumed, else false
          */
-        boolean onSingleTapConfirmed(MotionEvent e);
+        boolean onSingleTapConfirmed(GestureSnapshot e);
  
         /**
          * Notified when a double-tap occurs.
          *
-         * @param e The down motion event of the first tap of the double-tap.
+         * @param firstDown Snapshot of the down motion event of the first tap of the
+         *          double-tap.
          * @return true if the event is consumed, else false
          */
-        boolean onDoubleTap(MotionEvent e);
+        boolean onDoubleTap(GestureSnapshot firstDown);
 
         /**
          * Notified when an event within a double-tap gesture occurs, including
@@ -167,27 +167,27 @@ public class FlingGestureDetector {
             return false;
         }
 
-        public void onLongPress(MotionEvent e) {
+        public void onLongPress(GestureSnapshot down) {
         }
 
-        public boolean onScroll(MotionEvent e1, MotionEvent e2,
+        public boolean onScroll(GestureSnapshot down, MotionEvent e2,
                 float distanceX, float distanceY) {
             return false;
         }
 
-        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
+        public boolean onFling(GestureSnapshot down, MotionEvent e2, float velocityX,
                 float velocityY) {
             return false;
         }
 
-        public void onShowPress(MotionEvent e) {
+        public void onShowPress(GestureSnapshot down) {
         }
 
         public boolean onDown(MotionEvent e) {
             return false;
         }
 
-        public boolean onDoubleTap(MotionEvent e) {
+        public boolean onDoubleTap(GestureSnapshot firstDown) {
             return false;
         }
 
@@ -195,7 +195,7 @@ public class FlingGestureDetector {
             return false;
         }
 
-        public boolean onSingleTapConfirmed(MotionEvent e) {
+        public boolean onSingleTapConfirmed(GestureSnapshot e) {
             return false;
         }
     }
@@ -211,12 +211,11 @@ public class FlingGestureDetector {
     private static final int DOUBLE_TAP_TIMEOUT = ViewConfiguration.getDoubleTapTimeout();
     private static final int DOUBLE_TAP_MIN_TIME = ViewConfiguration.getDoubleTapMinTime();
 
-    // constants for Message.what used by GestureHandler below
-    private static final int SHOW_PRESS = 1;
-    private static final int LONG_PRESS = 2;
-    private static final int TAP = 3;
+    private static final int SHOW_PRESS = GestureTimer.SHOW_PRESS;
+    private static final int LONG_PRESS = GestureTimer.LONG_PRESS;
+    private static final int TAP = GestureTimer.TAP;
 
-    private final Handler mHandler;
+    private final GestureTimer mTimer;
     private final OnGestureListener mListener;
     private OnDoubleTapListener mDoubleTapListener;
 
@@ -226,8 +225,9 @@ public class FlingGestureDetector {
     private boolean mAlwaysInTapRegion;
     private boolean mAlwaysInBiggerTapRegion;
 
-    private MotionEvent mCurrentDownEvent;
-    private MotionEvent mPreviousUpEvent;
+    // what's needed of the latest down and up, overwritten in place
+    private final GestureSnapshot mCurrentDown = new GestureSnapshot();
+    private final GestureSnapshot mPreviousUp = new GestureSnapshot();
 
     /**
      * True when the user is still touching for the second tap (down, move, and
@@ -245,7 +245,13 @@ public class FlingGestureDetector {
     /**
      * Determines speed during touch scrolling
      */
-    private VelocityTracker mVelocityTracker;
+    private final VelocityEstimator mVelocityEstimator =
+            new VelocityEstimator(VelocityEstimator.STRATEGY_LSQ2);
+
+    /**
+     * Samples for callers that don't share a buffer of their own
+     */
+    private MotionSampleBuffer mSamples;
 
     /**
      * Consistency verifier for debugging purposes.
@@ -254,20 +260,13 @@ public class FlingGestureDetector {
             InputEventConsistencyVerifier.isInstrumentationEnabled() ?
                     new InputEventConsistencyVerifier(this, 0) : null;
 
-    private class GestureHandler extends Handler {
-        GestureHandler() {
-            super();
-        }
-
-        GestureHandler(Handler handler) {
-            super(handler.getLooper());
-        }
-
+    private final GestureTimer.OnTimeoutListener mTimeoutListener =
+            new GestureTimer.OnTimeoutListener() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
+        public void onTimeout(int slot) {
+            switch (slot) {
             case SHOW_PRESS:
-                mListener.onShowPress(mCurrentDownEvent);
+                mListener.onShowPress(mCurrentDown);
                 break;
                 
             case LONG_PRESS:
@@ -278,18 +277,15 @@ public class FlingGestureDetector {
                 // If the user's finger is still down, do not count it as a tap
                 if (mDoubleTapListener != null) {
                     if (!mStillDown) {
-                        mDoubleTapListener.onSingleTapConfirmed(mCurrentDownEvent);
+                        mDoubleTapListener.onSingleTapConfirmed(mCurrentDown);
                     } else {
                         mDeferConfirmSingleTap = true;
                     }
                 }
                 break;
-
-            default:
-                throw new RuntimeException("Unknown message " + msg); //never
             }
         }
-    }
+    };
 
     /**
      * Creates a GestureDetector with the supplied listener.
@@ -326,7 +322,7 @@ public class FlingGestureDetector {
      */
     @Deprecated
     public FlingGestureDetector(OnGestureListener listener) {
-        this(null, listener, null);
+        this(null, listener, (Handler) null);
     }
 
     /**
@@ -342,11 +338,26 @@ public class FlingGestureDetector {
      * @throws NullPointerException if {@code listener} is null.
      */
     public FlingGestureDetector(Context context, OnGestureListener listener, Handler handler) {
-        if (handler != null) {
-            mHandler = new GestureHandler(handler);
-        } else {
-            mHandler = new GestureHandler();
-        }
+        this(context, listener, new GestureTimer(handler != null ? handler : new Handler()));
+    }
+
+    /**
+     * Creates a GestureDetector with the supplied listener that runs deferred events
+     * from a timer it may share with the listener.
+     *
+     * @param context the application's context
+     * @param listener the listener invoked for all the callbacks, this must
+     * not be null.
+     * @param timer the timer to run deferred listener events from. The detector
+     * takes over its SHOW_PRESS, LONG_PRESS and TAP slots.
+     *
+     * @throws NullPointerException if {@code listener} is null.
+     */
+    public FlingGestureDetector(Context context, OnGestureListener listener, GestureTimer timer) {
+        mTimer = timer;
+        mTimer.setListener(SHOW_PRESS, mTimeoutListener);
+        mTimer.setListener(LONG_PRESS, mTimeoutListener);
+        mTimer.setListener(TAP, mTimeoutListener);
         mListener = listener;
         if (listener instanceof OnDoubleTapListener) {
             setOnDoubleTapListener((OnDoubleTapListener) listener);
@@ -473,32 +484,34 @@ public class FlingGestureDetector {
      *              else false.
      */
     public boolean onTouchEvent(MotionEvent ev) {
+        if (mSamples == null) {
+            mSamples = new MotionSampleBuffer();
+        }
+        mSamples.add(ev);
+        return onTouchEvent(ev, mSamples);
+    }
+
+    /**
+     * Analyzes the given motion event using samples already unpacked into
+     * a shared buffer by the caller.
+     *
+     * @param ev The current motion event.
+     * @param samples Buffer that ev was last added to.
+     * @return true if the {@link OnGestureListener} consumed the event,
+     *              else false.
+     */
+    public boolean onTouchEvent(MotionEvent ev, MotionSampleBuffer samples) {
         if (mInputEventConsistencyVerifier != null) {
             mInputEventConsistencyVerifier.onTouchEvent(ev, 0);
         }
 
         final int action = ev.getAction();
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
-
-        final boolean pointerUp =
-                (action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_POINTER_UP;
-        final int skipIndex = pointerUp ? ev.getActionIndex() : -1;
+        addVelocitySamples(ev, samples);
 
-        // Determine focal point
-        float sumX = 0, sumY = 0;
         final int count = ev.getPointerCount();
-        for (int i = 0; i < count; i++) {
-            if (skipIndex == i) continue;
-            sumX += ev.getX(i);
-            sumY += ev.getY(i);
-        }
-        final int div = pointerUp ? count - 1 : count;
-        final float focusX = sumX / div;
-        final float focusY = sumY / div;
+        final float focusX = samples.getFocusX();
+        final float focusY = samples.getFocusY();
 
         boolean handled = false;
 
@@ -516,21 +529,21 @@ public class FlingGestureDetector {
 
             // Check the dot product of current velocities.
             // If the pointer that left was opposing another velocity vector, clear.
-            mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+            mVelocityEstimator.computeVelocity(1000, mMaximumFlingVelocity);
             final int upIndex = ev.getActionIndex();
             final int id1 = ev.getPointerId(upIndex);
-            final float x1 = mVelocityTracker.getXVelocity(id1);
-            final float y1 = mVelocityTracker.getYVelocity(id1);
+            final float x1 = mVelocityEstimator.getXVelocity(id1);
+            final float y1 = mVelocityEstimator.getYVelocity(id1);
             for (int i = 0; i < count; i++) {
                 if (i == upIndex) continue;
 
                 final int id2 = ev.getPointerId(i);
-                final float x = x1 * mVelocityTracker.getXVelocity(id2);
-                final float y = y1 * mVelocityTracker.getYVelocity(id2);
+                final float x = x1 * mVelocityEstimator.getXVelocity(id2);
+                final float y = y1 * mVelocityEstimator.getYVelocity(id2);
 
                 final float dot = x + y;
                 if (dot < 0) {
-                    mVelocityTracker.clear();
+                    mVelocityEstimator.clear();
                     break;
                 }
             }
@@ -538,28 +551,25 @@ public class FlingGestureDetector {
 
         case MotionEvent.ACTION_DOWN:
             if (mDoubleTapListener != null) {
-                boolean hadTapMessage = mHandler.hasMessages(TAP);
-                if (hadTapMessage) mHandler.removeMessages(TAP);
-                if ((mCurrentDownEvent != null) && (mPreviousUpEvent != null) && hadTapMessage &&
-                        isConsideredDoubleTap(mCurrentDownEvent, mPreviousUpEvent, ev)) {
+                boolean hadTapMessage = mTimer.isArmed(TAP);
+                if (hadTapMessage) mTimer.disarm(TAP);
+                if (mCurrentDown.isSet() && mPreviousUp.isSet() && hadTapMessage &&
+                        isConsideredDoubleTap(mCurrentDown, mPreviousUp, ev)) {
                     // This is a second tap
                     mIsDoubleTapping = true;
                     // Give a callback with the first tap of the double-tap
-                    handled |= mDoubleTapListener.onDoubleTap(mCurrentDownEvent);
+                    handled |= mDoubleTapListener.onDoubleTap(mCurrentDown);
                     // Give a callback with down event of the double-tap
                     handled |= mDoubleTapListener.onDoubleTapEvent(ev);
                 } else {
                     // This is a first tap
-                    mHandler.sendEmptyMessageDelayed(TAP, getDoubleTapTimeout());
+                    mTimer.armDelayed(TAP, getDoubleTapTimeout());
                 }
             }
 
             mDownFocusX = mLastFocusX = focusX;
             mDownFocusY = mLastFocusY = focusY;
-            if (mCurrentDownEvent != null) {
-                mCurrentDownEvent.recycle();
-            }
-            mCurrentDownEvent = MotionEvent.obtain(ev);
+            mCurrentDown.set(ev);
             mAlwaysInTapRegion = true;
             mAlwaysInBiggerTapRegion = true;
             mStillDown = true;
@@ -567,11 +577,10 @@ public class FlingGestureDetector {
             mDeferConfirmSingleTap = false;
             
             if (mIsLongpressEnabled) {
-                mHandler.removeMessages(LONG_PRESS);
-                mHandler.sendEmptyMessageAtTime(LONG_PRESS, mCurrentDownEvent.getDownTime()
+                mTimer.arm(LONG_PRESS, ev.getDownTime()
                         + getTapTimeout() + getLongPressTimeout());
             }
-            mHandler.sendEmptyMessageAtTime(SHOW_PRESS, mCurrentDownEvent.getDownTime() + getTapTimeout());
+            mTimer.arm(SHOW_PRESS, ev.getDownTime() + getTapTimeout());
             handled |= mListener.onDown(ev);
             break;
 
@@ -589,19 +598,19 @@ public class FlingGestureDetector {
                 final int deltaY = (int) (focusY - mDownFocusY);
                 int distance = (deltaX * deltaX) + (deltaY * deltaY);
                 if (distance > mTouchSlopSquare) {
-                    handled = mListener.onScroll(mCurrentDownEvent, ev, scrollX, scrollY);
+                    handled = mListener.onScroll(mCurrentDown, ev, scrollX, scrollY);
                     mLastFocusX = focusX;
                     mLastFocusY = focusY;
                     mAlwaysInTapRegion = false;
-                    mHandler.removeMessages(TAP);
-                    mHandler.removeMessages(SHOW_PRESS);
-                    mHandler.removeMessages(LONG_PRESS);
+                    mTimer.disarm(TAP);
+                    mTimer.disarm(SHOW_PRESS);
+                    mTimer.disarm(LONG_PRESS);
                 }
                 if (distance > mDoubleTapTouchSlopSquare) {
                     mAlwaysInBiggerTapRegion = false;
                 }
             } else if ((Math.abs(scrollX) >= 1) || (Math.abs(scrollY) >= 1)) {
-                handled = mListener.onScroll(mCurrentDownEvent, ev, scrollX, scrollY);
+                handled = mListener.onScroll(mCurrentDown, ev, scrollX, scrollY);
                 mLastFocusX = focusX;
                 mLastFocusY = focusY;
             }
@@ -609,47 +618,36 @@ public class FlingGestureDetector {
 
         case MotionEvent.ACTION_UP:
             mStillDown = false;
-            MotionEvent currentUpEvent = MotionEvent.obtain(ev);
+            // before listeners get a chance to change the original
+            mPreviousUp.set(ev);
             if (mIsDoubleTapping) {
                 // Finally, give the up event of the double-tap
                 handled |= mDoubleTapListener.onDoubleTapEvent(ev);
             } else if (mInLongPress) {
-                mHandler.removeMessages(TAP);
+                mTimer.disarm(TAP);
                 mInLongPress = false;
             } else if (mAlwaysInTapRegion) {
                 handled = mListener.onSingleTapUp(ev);
                 if (mDeferConfirmSingleTap && mDoubleTapListener != null) {
-                    mDoubleTapListener.onSingleTapConfirmed(ev);
+                    mDoubleTapListener.onSingleTapConfirmed(mPreviousUp);
                 }
             } else {
 
                 // A fling must travel the minimum tap distance
-                final VelocityTracker velocityTracker = mVelocityTracker;
                 final int pointerId = ev.getPointerId(0);
-                velocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
-                final float velocityY = velocityTracker.getYVelocity(pointerId);
-                final float velocityX = velocityTracker.getXVelocity(pointerId);
+                mVelocityEstimator.computeVelocity(pointerId, 1000, mMaximumFlingVelocity);
+                final float velocityY = mVelocityEstimator.getYVelocity(pointerId);
+                final float velocityX = mVelocityEstimator.getXVelocity(pointerId);
 
                 if ((Math.abs(velocityY) > mMinimumFlingVelocity)
                         || (Math.abs(velocityX) > mMinimumFlingVelocity)){
-                    handled = mListener.onFling(mCurrentDownEvent, ev, velocityX, velocityY);
+                    handled = mListener.onFling(mCurrentDown, ev, velocityX, velocityY);
                 }
             }
-            if (mPreviousUpEvent != null) {
-                mPreviousUpEvent.recycle();
-            }
-            // Hold the event we obtained above - listeners may have changed the original.
-            mPreviousUpEvent = currentUpEvent;
-            if (mVelocityTracker != null) {
-                // This may have been cleared when we called out to the
-                // application above.
-                mVelocityTracker.recycle();
-                mVelocityTracker = null;
-            }
             mIsDoubleTapping = false;
             mDeferConfirmSingleTap = false;
-            mHandler.removeMessages(SHOW_PRESS);
-            mHandler.removeMessages(LONG_PRESS);
+            mTimer.disarm(SHOW_PRESS);
+            mTimer.disarm(LONG_PRESS);
             break;
 
         case MotionEvent.ACTION_CANCEL:
@@ -663,12 +661,44 @@ public class FlingGestureDetector {
         return handled;
     }
 
+    /**
+     * Feed the estimator the movement samples of the latest event. Like
+     * VelocityTracker, ups carry no new movement and keep the velocity of
+     * a pointer that just lifted
+     */
+    private void addVelocitySamples(MotionEvent ev, MotionSampleBuffer samples) {
+        switch (samples.getActionMasked()) {
+        case MotionEvent.ACTION_DOWN:
+            mVelocityEstimator.clear();
+            break;
+        case MotionEvent.ACTION_POINTER_DOWN:
+            // new trace for the pointer going down
+            mVelocityEstimator.clearPointer(ev.getPointerId(samples.getActionIndex()));
+            break;
+        case MotionEvent.ACTION_MOVE:
+            break;
+        default:
+            return;
+        }
+        for (int seq = samples.getEventStart(); seq < samples.getEnd(); seq++) {
+            mVelocityEstimator.addSample(samples.getPointer(seq), samples.getX(seq),
+                    samples.getY(seq), samples.getTime(seq));
+        }
+    }
+
+    /**
+     * Velocity of the gesture in progress for classifying it early.
+     * Call computeVelocity() on it before reading
+     */
+    public VelocityEstimator getVelocityEstimator() {
+        return mVelocityEstimator;
+    }
+
     private void cancel() {
-        mHandler.removeMessages(SHOW_PRESS);
-        mHandler.removeMessages(LONG_PRESS);
-        mHandler.removeMessages(TAP);
-        mVelocityTracker.recycle();
-        mVelocityTracker = null;
+        mTimer.disarm(SHOW_PRESS);
+        mTimer.disarm(LONG_PRESS);
+        mTimer.disarm(TAP);
+        mVelocityEstimator.clear();
         mIsDoubleTapping = false;
         mStillDown = false;
         mAlwaysInTapRegion = false;
@@ -680,9 +710,9 @@ public class FlingGestureDetector {
     }
 
     private void cancelTaps() {
-        mHandler.removeMessages(SHOW_PRESS);
-        mHandler.removeMessages(LONG_PRESS);
-        mHandler.removeMessages(TAP);
+        mTimer.disarm(SHOW_PRESS);
+        mTimer.disarm(LONG_PRESS);
+        mTimer.disarm(TAP);
         mIsDoubleTapping = false;
         mAlwaysInTapRegion = false;
         mAlwaysInBiggerTapRegion = false;
@@ -692,7 +722,7 @@ public class FlingGestureDetector {
         }
     }
 
-    private boolean isConsideredDoubleTap(MotionEvent firstDown, MotionEvent firstUp,
+    private boolean isConsideredDoubleTap(GestureSnapshot firstDown, GestureSnapshot firstUp,
             MotionEvent secondDown) {
         if (!mAlwaysInBiggerTapRegion) {
             return false;
@@ -709,10 +739,10 @@ public class FlingGestureDetector {
     }
 
     private void dispatchLongPress() {
-        mHandler.removeMessages(TAP);
+        mTimer.disarm(TAP);
         mDeferConfirmSingleTap = false;
         mInLongPress = true;
-        mListener.onLongPress(mCurrentDownEvent);
+        mListener.onLongPress(mCurrentDown);
     }
 }
 
@@ -36,7 +36,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
 import android.net.Uri;
-import android.os.Handler;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.Log;
@@ -50,7 +49,11 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
  *
  */
     public interface Swipeable {
-        public boolean onDoubleTapEnabled();
+        /**
+         * @return true if this side of the bar has a double tap of its
+         *         own, so a first tap has to wait for a second one
+         */
+        public boolean onDoubleTapEnabled(boolean isRight);
 
         public void onSingleLeftPress();
 
@@ -75,6 +78,16 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         public void onUpRightSwipe();
 
         public void onUpLeftSwipe();
+
+        /**
+         * A swipe still in progress will probably end up as slot. Called
+         * at most once per slot per gesture, may be called for several
+         * slots as the swipe develops
+         *
+         * @param slot - one of the FlingGestures swipe slots
+         * @param confidence - between 0 and 1
+         */
+        public void onSwipePredicted(int slot, float confidence);
     }
 
     private static Set<Uri> sUris = new HashSet<Uri>();
@@ -92,59 +105,64 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     // AOSP DT timeout feels a bit slow on nx
     private static final int DT_TIMEOUT = ViewConfiguration.getDoubleTapTimeout() - 100;
+    // swipe prediction confidence needed to tell the receiver
+    private static final float PREDICTION_CONFIDENCE = 0.6f;
 
     // in-house double tap logic
-    private Handler mHandler = new Handler();
+    private final GestureTimer mTimer;
     private boolean mIsDoubleTapPending;
+    private boolean mPendingTapOnRight;
     private boolean mWasConsumed;
 
-    // long swipe thresholds from user settings or default config
-    //
-    // left and right thresholds for tablets when device orientation is landscape
-    private float mLeftLand;
-    private float mRightLand;
-    // left and right thresholds for all devices when device orientation is portrait
-    private float mLeftPort;
-    private float mRightPort;
-    // up and down thresholds for phones when device orientation is landscape and navbar is vertical
-    private float mUpVert;
-    private float mDownVert;
+    // slots already predicted during this gesture, bit per slot
+    private int mPredictedSlots;
 
     // pass Fling events to listener
     private Swipeable mReceiver;
-    // swipe analysis and state
-    private final FlingSwipe mFlingSwipe = new FlingSwipe();
+    // swipe analysis, fed bar state and long swipe settings as they change
+    private final SwipeClassifier mSwipe = new SwipeClassifier();
     private Context mContext;
 
     // for width/height logic
     private View mHost;
     // is navbar in "left in landscape" mode (vertical bar on left instead of right)
     private boolean mLeftInLandscape;
+    // GestureReplay pins the orientation a recording was made in
+    private boolean mFixedOrientation;
+    private boolean mFixedLandscape;
     private final boolean mIsTablet;
 
-    private Runnable mDoubleTapLeftTimeout = new Runnable() {
-        @Override
-        public void run() {
-            mWasConsumed = false;
-            mIsDoubleTapPending = false;
-            mReceiver.onSingleLeftPress();
-        }
-    };
+    // gesture to action timing
+    private final FlingLatencyStats mLatencyStats;
+    // when the tap now waiting out the double tap timeout lifted
+    private long mTapUpNanos;
 
-    private Runnable mDoubleTapRightTimeout = new Runnable() {
+    private final GestureTimer.OnTimeoutListener mDoubleTapTimeout =
+            new GestureTimer.OnTimeoutListener() {
         @Override
-        public void run() {
+        public void onTimeout(int slot) {
             mWasConsumed = false;
             mIsDoubleTapPending = false;
-            mReceiver.onSingleRightPress();
+            if (slot == GestureTimer.DOUBLE_TAP_RIGHT) {
+                mLatencyStats.onGesture(FlingGestures.SINGLE_RIGHT_TAP, mTapUpNanos);
+                mReceiver.onSingleRightPress();
+            } else {
+                mLatencyStats.onGesture(FlingGestures.SINGLE_LEFT_TAP, mTapUpNanos);
+                mReceiver.onSingleLeftPress();
+            }
         }
     };
 
-    public FlingGestureHandler(Context context, Swipeable swiper, View host, boolean isTablet) {
+    public FlingGestureHandler(Context context, Swipeable swiper, View host, boolean isTablet,
+            FlingLatencyStats latencyStats, GestureTimer timer) {
         mContext = context;
+        mTimer = timer;
+        mTimer.setListener(GestureTimer.DOUBLE_TAP_LEFT, mDoubleTapTimeout);
+        mTimer.setListener(GestureTimer.DOUBLE_TAP_RIGHT, mDoubleTapTimeout);
         mReceiver = swiper;
         mHost = host;
         mIsTablet = isTablet;
+        mLatencyStats = latencyStats;
         updateSettings();
     }
 
@@ -156,6 +174,13 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     public void setLeftInLandscape(boolean leftInLandscape) {
         mLeftInLandscape = leftInLandscape;
+        updateSwipeTable();
+    }
+
+    void setFixedOrientation(boolean landscape) {
+        mFixedOrientation = true;
+        mFixedLandscape = landscape;
+        updateSwipeTable();
     }
 
     public void setOnSwipeListener(Swipeable swiper) {
@@ -166,12 +191,21 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     @Override
     public boolean onDown(MotionEvent e) {
+        mPredictedSlots = 0;
         if (mIsDoubleTapPending) {
             boolean isRight = isRightSide(e.getX(), e.getY());
+            if (isRight != mPendingTapOnRight && !mReceiver.onDoubleTapEnabled(isRight)) {
+                // a second tap anywhere completes a double tap. The other side
+                // has no double tap of its own, so it is the pending side's,
+                // what falling back would have fired anyway
+                isRight = mPendingTapOnRight;
+            }
             mIsDoubleTapPending = false;
             mWasConsumed = true;
-            mHandler.removeCallbacks(mDoubleTapLeftTimeout);
-            mHandler.removeCallbacks(mDoubleTapRightTimeout);
+            mTimer.disarm(GestureTimer.DOUBLE_TAP_LEFT);
+            mTimer.disarm(GestureTimer.DOUBLE_TAP_RIGHT);
+            mLatencyStats.onGesture(isRight ? FlingGestures.DOUBLE_RIGHT_TAP
+                    : FlingGestures.DOUBLE_LEFT_TAP, e.getEventTimeNano());
             if (isRight) {
                 mReceiver.onDoubleRightTap();
             } else {
@@ -183,25 +217,27 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     }
 
     @Override
-    public void onShowPress(MotionEvent e) {
+    public void onShowPress(GestureSnapshot down) {
         // TODO Auto-generated method stub
     }
 
     @Override
     public boolean onSingleTapUp(MotionEvent e) {
         boolean isRight = isRightSide(e.getX(), e.getY());
-        if (mReceiver.onDoubleTapEnabled()) {
-            if (mWasConsumed) {
-                mWasConsumed = false;
-                return true;
-            }
+        if (mWasConsumed) {
+            // up of the second tap of a double tap
+            mWasConsumed = false;
+            return true;
+        }
+        if (mReceiver.onDoubleTapEnabled(isRight)) {
             mIsDoubleTapPending = true;
-            if (isRight) {
-                mHandler.postDelayed(mDoubleTapRightTimeout, DT_TIMEOUT);
-            } else {
-                mHandler.postDelayed(mDoubleTapLeftTimeout, DT_TIMEOUT);
-            }
+            mPendingTapOnRight = isRight;
+            mTapUpNanos = e.getEventTimeNano();
+            mTimer.armDelayed(isRight ? GestureTimer.DOUBLE_TAP_RIGHT
+                    : GestureTimer.DOUBLE_TAP_LEFT, DT_TIMEOUT);
         } else {
+            mLatencyStats.onGesture(isRight ? FlingGestures.SINGLE_RIGHT_TAP
+                    : FlingGestures.SINGLE_LEFT_TAP, e.getEventTimeNano());
             if (isRight) {
                 mReceiver.onSingleRightPress();
             } else {
@@ -212,14 +248,31 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     }
 
     @Override
-    public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-        // TODO Auto-generated method stub
+    public boolean onScroll(GestureSnapshot e1, MotionEvent e2, float distanceX, float distanceY) {
+        // classify the swipe so far, gives the receiver a head start on
+        // whatever will happen when the finger lifts
+        mSwipe.classify(e1.getX(), e1.getY(), e2.getX(), e2.getY());
+        final int slot = mSwipe.getPredictedSlot();
+        final int bit = 1 << slot;
+        if ((mPredictedSlots & bit) == 0) {
+            final float confidence = mSwipe.getConfidence();
+            if (confidence >= PREDICTION_CONFIDENCE) {
+                mPredictedSlots |= bit;
+                if (DEBUG) {
+                    Log.d(TAG, "Predicted " + FlingGestures.toString(slot) + " " + confidence);
+                }
+                mReceiver.onSwipePredicted(slot, confidence);
+            }
+        }
         return false;
     }
 
     @Override
-    public void onLongPress(MotionEvent e) {
+    public void onLongPress(GestureSnapshot e) {
         boolean isRight = isRightSide(e.getX(), e.getY());
+        // e is the down event, so wait includes the long press timeout
+        mLatencyStats.onGesture(isRight ? FlingGestures.LONG_RIGHT_PRESS
+                : FlingGestures.LONG_LEFT_PRESS, e.getEventTimeNano());
         if (isRight) {
             mReceiver.onLongRightPress();
         } else {
@@ -228,77 +281,86 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     }
 
     @Override
-    public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
+    public boolean onFling(GestureSnapshot e1, MotionEvent e2, float velocityX,
             float velocityY) {
-        mFlingSwipe.process(e1, e2);
+        mSwipe.classify(e1.getX(), e1.getY(), e2.getX(), e2.getY());
+        final int slot = mSwipe.getSlot();
+        if (DEBUG) {
+            Log.d(TAG, "Swipe " + FlingGestures.toString(slot));
+        }
+        mLatencyStats.onGesture(slot, e2.getEventTimeNano());
 
-        if (mFlingSwipe.swipeDirection == SwipeDirection.UP) {
-            if (mFlingSwipe.isSwipeOnRight()) {
+        switch (slot) {
+            case FlingGestures.UP_RIGHT_SWIPE:
                 mReceiver.onUpRightSwipe();
-            } else {
+                break;
+            case FlingGestures.UP_LEFT_SWIPE:
                 mReceiver.onUpLeftSwipe();
-            }
-        } else if (mFlingSwipe.swipeDirection == SwipeDirection.LEFT) {
-            if (mFlingSwipe.isThisLongSwipe()) {
+                break;
+            case FlingGestures.LONG_LEFT_SWIPE:
                 mReceiver.onLongLeftSwipe();
-            } else {
+                break;
+            case FlingGestures.SHORT_LEFT_SWIPE:
                 mReceiver.onShortLeftSwipe();
-            }
-        } else if (mFlingSwipe.swipeDirection == SwipeDirection.RIGHT) {
-            if (mFlingSwipe.isThisLongSwipe()) {
+                break;
+            case FlingGestures.LONG_RIGHT_SWIPE:
                 mReceiver.onLongRightSwipe();
-            } else {
+                break;
+            case FlingGestures.SHORT_RIGHT_SWIPE:
                 mReceiver.onShortRightSwipe();
-            }
+                break;
         }
         return true;
     }
 
-    private boolean isHorizontal() {
-        return mHost.getWidth() > mHost.getHeight();
+    public void onSizeChanged(int w, int h) {
+        updateSwipeTable();
+    }
+
+    public void reorient() {
+        updateSwipeTable();
     }
 
-    /*
-     * Used for tap and up/down swipe events
-     * NOTE: when bar is vertical, "right" side
-     * refers to top half of bar and "left" refers
-     * to the bottom half
-     */
     private boolean isRightSide(float x, float y) {
-        final boolean isVertical = !isHorizontal();
-        float length = isVertical ? mHost.getHeight() : mHost.getWidth();
-        float pos = isVertical ? y : x;
-        length /= 2;
-        return isVertical ? pos < length : pos > length;
+        return mSwipe.isRightSide(x, y);
+    }
+
+    private void updateSwipeTable() {
+        final boolean landscape = mFixedOrientation ? mFixedLandscape
+                : DUActionUtils.isLandscape(mContext);
+        mSwipe.setBar(mHost.getWidth(), mHost.getHeight(), landscape, mLeftInLandscape);
     }
 
     private void updateSettings() {
         ContentResolver resolver = mContext.getContentResolver();
         Resources res = mContext.getResources();
 
-        mLeftLand = (float) (Settings.Secure.getIntForUser(
+        // long swipe thresholds from user settings or default config
+        final float leftLand = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_LEFT_LAND,
                 25, UserHandle.USER_CURRENT) * 0.01f);
 
-        mRightLand = (float) (Settings.Secure.getIntForUser(
+        final float rightLand = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_RIGHT_LAND,
                 25, UserHandle.USER_CURRENT) * 0.01f);
 
-        mLeftPort = (float) (Settings.Secure.getIntForUser(
+        final float leftPort = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_LEFT_PORT,
                 mIsTablet ? 30 : 40, UserHandle.USER_CURRENT) * 0.01f);
 
-        mRightPort = (float) (Settings.Secure.getIntForUser(
+        final float rightPort = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_RIGHT_PORT,
                 mIsTablet ? 30 : 40, UserHandle.USER_CURRENT) * 0.01f);
 
-        mUpVert = (float) (Settings.Secure.getIntForUser(
+        final float upVert = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_UP_LAND,
                 40, UserHandle.USER_CURRENT) * 0.01f);
 
-        mDownVert = (float) (Settings.Secure.getIntForUser(
+        final float downVert = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_DOWN_LAND,
                 40, UserHandle.USER_CURRENT) * 0.01f);
+
+        mSwipe.setLongSwipeThresholds(leftLand, rightLand, leftPort, rightPort, upVert, downVert);
     }
 
     @Override
@@ -310,126 +372,4 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     public void onChange(Uri uri) {
         updateSettings();
     }
-
-    private enum SwipeDirection {
-        LEFT,
-        RIGHT,
-        UP
-    }
-
-    // This class will help despagettify motion handling, maybe ;p
-    private class FlingSwipe {
-        // minimum amount of bar to swipe to validate a vertical swipe
-        private static final float VERTICAL_SWIPE_THRESHOLD = 0.80f;
-        // Maximum swipe angle before fall over into non-vertical swipes
-        private static final double VERTICAL_SWIPE_DEGREES = 30.0d;
-
-        // direction of swipe, either actual or treated as such (vertical bar)
-        private SwipeDirection swipeDirection;
-
-        // was vertical swipe on right/left side
-        private boolean mVerticalSwipeOnRight;
-
-        // Between -1.0 to 1.0  - percent of bar swiped - however we expose only absolute value -
-        // direction should be checked with getSwipeDirection
-        private float horizontalSwipePercent;
-
-        // Between -1.0 to 1.0  - percent of bar swiped - however we expose only absolute value -
-        // direction should be checked with getSwipeDirection
-        private float verticalSwipePercent;
-
-        // the default or user set long swipe threshold for this long swipe event
-        private float longSwipeThreshold;
-
-        public FlingSwipe(){}
-
-        void process(MotionEvent start, MotionEvent end) {
-            // bar and device states
-            final boolean isNavbarHorizontal = isHorizontal();
-            final boolean isLandscape = DUActionUtils.isLandscape(mContext);
-            final float xStart = start.getX();
-            final float yStart = start.getY();
-            final float xDist = end.getX() - xStart;
-            final float yDist = end.getY() - yStart;
-
-            // how much bar long side did the swipe cover
-            horizontalSwipePercent = isNavbarHorizontal ? xDist / mHost.getWidth() :
-                    yDist / mHost.getHeight();
-            // how much bar short side was covered
-            verticalSwipePercent = isNavbarHorizontal ? yDist / mHost.getHeight() :
-                xDist / mHost.getWidth();
-            // which side was the swipe started from
-            mVerticalSwipeOnRight = isRightSide(xStart, yStart);
-
-            final boolean isVerticalSwipe = validateVerticalSwipe(isNavbarHorizontal, isLandscape, xDist, yDist);
-            if(!isVerticalSwipe) {
-                // normal side to side flinging action
-                // first check landscape conditions
-                if (isLandscape) {
-                    // is bar horizontal (tablet)
-                    if (isNavbarHorizontal) {
-                        if (horizontalSwipePercent >= 0) {
-                            swipeDirection = SwipeDirection.RIGHT;
-                            longSwipeThreshold = mRightLand;
-                        } else {
-                            swipeDirection = SwipeDirection.LEFT;
-                            longSwipeThreshold = mLeftLand;
-                        }
-                    } else {
-                        // vertical bar on phones
-                        if (horizontalSwipePercent >= 0) {
-                            swipeDirection = SwipeDirection.LEFT;
-                            longSwipeThreshold = mDownVert;
-                        } else {
-                            swipeDirection = SwipeDirection.RIGHT;
-                            longSwipeThreshold = mUpVert;
-                        }
-                    }
-                } else {
-                    // portrait orientation
-                    if (horizontalSwipePercent >= 0) {
-                        swipeDirection = SwipeDirection.RIGHT;
-                        longSwipeThreshold = mRightPort;
-                    } else {
-                        swipeDirection = SwipeDirection.LEFT;
-                        longSwipeThreshold = mLeftPort;
-                    }
-                }
-            }
-        }
-
-        private boolean validateVerticalSwipe(boolean isHorizontal, boolean isLandscape, float xDistance, float yDistance) {
-            // if we don't meet minimum threshold and we are too sloppy with our vertical swipe
-            // return false to continue processing
-            if (Math.abs(verticalSwipePercent) < VERTICAL_SWIPE_THRESHOLD) {
-                return false;
-            }
-            // calculate the angle of the swipe. If the angle exceeds 30 degrees, it is an invalid
-            // vertical swipe and the event will be handled as a long or short swipe
-            double degrees = Math.abs(Math.toDegrees(Math.atan(((isHorizontal ? xDistance : yDistance) / (isHorizontal ? yDistance : xDistance)))));
-            if(DEBUG) {
-                Log.e(TAG, "Validating a vertical swipe of " + String.valueOf(degrees) + " degrees");
-            }
-            if (degrees > VERTICAL_SWIPE_DEGREES) {
-                return false;
-            }
-            // conditions which must be met for a valid vertical swipe
-            if ((isHorizontal && verticalSwipePercent <= 0)  // horizontal and direction is up
-                    || (!isHorizontal && mLeftInLandscape && verticalSwipePercent >= 0) // vertical bar on left and direction is right
-                    || (!isHorizontal && !mLeftInLandscape && verticalSwipePercent <= 0)) { // vertical bar on right and direction is left
-                swipeDirection = SwipeDirection.UP;
-                return true;
-            }
-            return false;
-        }
-
-        public boolean isThisLongSwipe() {
-            return Math.abs(horizontalSwipePercent) > longSwipeThreshold;
-        }
-
-        public boolean isSwipeOnRight() {
-            return mVerticalSwipeOnRight;
-        }
-    }
-
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Gesture slots Fling can bind an action to. Slots are dense ints so
+ * per gesture state can live in plain arrays
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import com.android.internal.utils.du.ActionConstants;
+
+public final class FlingGestures {
+    public static final int NONE = -1;
+    public static final int SINGLE_LEFT_TAP = 0;
+    public static final int SINGLE_RIGHT_TAP = 1;
+    public static final int DOUBLE_LEFT_TAP = 2;
+    public static final int DOUBLE_RIGHT_TAP = 3;
+    public static final int LONG_LEFT_PRESS = 4;
+    public static final int LONG_RIGHT_PRESS = 5;
+    public static final int SHORT_LEFT_SWIPE = 6;
+    public static final int LONG_LEFT_SWIPE = 7;
+    public static final int SHORT_RIGHT_SWIPE = 8;
+    public static final int LONG_RIGHT_SWIPE = 9;
+    public static final int UP_LEFT_SWIPE = 10;
+    public static final int UP_RIGHT_SWIPE = 11;
+    public static final int COUNT = 12;
+
+    private static final String[] TAGS = {
+            ActionConstants.Fling.SINGLE_LEFT_TAP_TAG,
+            ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG,
+            ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG,
+            ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG,
+            ActionConstants.Fling.LONG_LEFT_PRESS_TAG,
+            ActionConstants.Fling.LONG_RIGHT_PRESS_TAG,
+            ActionConstants.Fling.FLING_SHORT_LEFT_TAG,
+            ActionConstants.Fling.FLING_LONG_LEFT_TAG,
+            ActionConstants.Fling.FLING_SHORT_RIGHT_TAG,
+            ActionConstants.Fling.FLING_LONG_RIGHT_TAG,
+            ActionConstants.Fling.FLING_LEFT_UP_TAG,
+            ActionConstants.Fling.FLING_RIGHT_UP_TAG
+    };
+
+    private static final String[] NAMES = {
+            "singleLeftTap",
+            "singleRightTap",
+            "doubleLeftTap",
+            "doubleRightTap",
+            "longLeftPress",
+            "longRightPress",
+            "shortLeftSwipe",
+            "longLeftSwipe",
+            "shortRightSwipe",
+            "longRightSwipe",
+            "upLeftSwipe",
+            "upRightSwipe"
+    };
+
+    private FlingGestures() {}
+
+    /**
+     * @return action config tag bound to slot
+     */
+    public static String getTag(int slot) {
+        return TAGS[slot];
+    }
+
+    /**
+     * @return slot on the other side of the bar, which the action of
+     *         slot falls back to when slot has none. Left and right swipes
+     *         have no fallback
+     */
+    public static int getFallback(int slot) {
+        switch (slot) {
+            case SINGLE_LEFT_TAP:
+            case DOUBLE_LEFT_TAP:
+            case LONG_LEFT_PRESS:
+                return slot + 1;
+            case SINGLE_RIGHT_TAP:
+            case DOUBLE_RIGHT_TAP:
+            case LONG_RIGHT_PRESS:
+                return slot - 1;
+            case UP_LEFT_SWIPE:
+                return UP_RIGHT_SWIPE;
+            case UP_RIGHT_SWIPE:
+                return UP_LEFT_SWIPE;
+            default:
+                return NONE;
+        }
+    }
+
+    public static String toString(int slot) {
+        return slot >= 0 && slot < COUNT ? NAMES[slot] : "none";
+    }
+}
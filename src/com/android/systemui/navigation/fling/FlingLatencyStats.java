@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Gesture to action latency per Fling gesture slot. Latency runs from the
+ * input event that completed the gesture to dispatching the action and
+ * splits into wait, until Fling decided on the gesture (input dispatch plus
+ * built in timeouts like double tap and long press), and processing, from
+ * there to dispatch. Task time is what dispatch cost the UI thread, the
+ * ActionExecutor accounts for the action itself. Recorded on the UI
+ * thread, dumped from anywhere
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import com.android.systemui.navigation.utils.TimingHistogram;
+
+import java.io.PrintWriter;
+
+public class FlingLatencyStats {
+    private final TimingHistogram[] mLatency = new TimingHistogram[FlingGestures.COUNT];
+    private final TimingHistogram[] mWait = new TimingHistogram[FlingGestures.COUNT];
+    private final TimingHistogram[] mProcessing = new TimingHistogram[FlingGestures.COUNT];
+    private final TimingHistogram[] mTask = new TimingHistogram[FlingGestures.COUNT];
+
+    // gesture being dispatched, NONE when there is nothing to measure
+    private int mSlot = FlingGestures.NONE;
+    private long mEventNanos;
+    private long mDecidedNanos;
+    private long mTaskStartNanos;
+
+    public FlingLatencyStats() {
+        for (int i = 0; i < FlingGestures.COUNT; i++) {
+            mLatency[i] = new TimingHistogram();
+            mWait[i] = new TimingHistogram();
+            mProcessing[i] = new TimingHistogram();
+            mTask[i] = new TimingHistogram();
+        }
+    }
+
+    /**
+     * Fling decided the gesture is slot. Must be followed by onTaskStart()
+     * for anything to be recorded
+     *
+     * @param eventNanos - CLOCK_MONOTONIC time of the event that completed
+     *        the gesture, same clock as System.nanoTime()
+     */
+    public void onGesture(int slot, long eventNanos) {
+        mSlot = slot;
+        mEventNanos = eventNanos;
+        mDecidedNanos = System.nanoTime();
+    }
+
+    /**
+     * An action is about to be performed for the last gesture
+     */
+    public void onTaskStart() {
+        if (mSlot == FlingGestures.NONE) {
+            return;
+        }
+        mTaskStartNanos = System.nanoTime();
+        mLatency[mSlot].record(mTaskStartNanos - mEventNanos);
+        mWait[mSlot].record(mDecidedNanos - mEventNanos);
+        mProcessing[mSlot].record(mTaskStartNanos - mDecidedNanos);
+    }
+
+    public void onTaskEnd() {
+        if (mSlot == FlingGestures.NONE) {
+            return;
+        }
+        mTask[mSlot].record(System.nanoTime() - mTaskStartNanos);
+        mSlot = FlingGestures.NONE;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("    FlingLatencyStats {");
+        for (int i = 0; i < FlingGestures.COUNT; i++) {
+            if (mLatency[i].getCount() == 0) {
+                continue;
+            }
+            pw.println("      " + FlingGestures.toString(i) + ":");
+            mLatency[i].dump(pw, "        ", "latency");
+            mWait[i].dump(pw, "        ", "wait");
+            mProcessing[i].dump(pw, "        ", "processing");
+            mTask[i].dump(pw, "        ", "task");
+        }
+        pw.println("    }");
+    }
+}
@@ -15,6 +15,10 @@
  * 
  * Heavily modified for TeamEos NX implementation by Randall Rushing aka Bigrushdog
  * 
+ * On hardware canvases the circle is drawn from CanvasProperties animated by
+ * RenderNodeAnimators, like SmartButtonRipple, so ripple frames run on the
+ * RenderThread without redrawing the bar
+ * 
  */
 
 package com.android.systemui.navigation.fling;
@@ -25,21 +29,28 @@ import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.content.res.Resources;
 import android.graphics.Canvas;
+import android.graphics.CanvasProperty;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.util.Property;
 import android.util.TypedValue;
+import android.view.DisplayListCanvas;
 import android.view.MotionEvent;
+import android.view.RenderNodeAnimator;
 import android.view.View;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
 import android.view.animation.LinearInterpolator;
 
-public class FlingRipple implements View.OnTouchListener {
+import java.util.ArrayList;
+import java.util.HashSet;
+
+public class FlingRipple {
     private static final int DEFAULT_DURATION = 350;
     private static final int DEFAULT_FADE_DURATION = 75;
     private static final float DEFAULT_DIAMETER_DP = 10;
@@ -74,6 +85,25 @@ public class FlingRipple implements View.OnTouchListener {
     private boolean mDrawBackground = false;
     private View mHost;
 
+    // hardware path, the circle is drawn from these while mDrawingHardwareRipple
+    private boolean mSupportHardware;
+    private boolean mDrawingHardwareRipple;
+    private CanvasProperty<Float> mCxProp;
+    private CanvasProperty<Float> mCyProp;
+    private CanvasProperty<Float> mRadiusProp;
+    private CanvasProperty<Paint> mPaintProp;
+    private RenderNodeAnimator mHardwareHover;
+    // zero length, they move the circle on the RenderThread
+    private RenderNodeAnimator mHardwareMoveX;
+    private RenderNodeAnimator mHardwareMoveY;
+    // the RenderThread owns the radius, hover is linear so track it from here
+    private long mHardwareHoverStart;
+    private float mHardwareHoverFrom;
+    private float mHardwareHoverTo;
+    private float mHardwareEndRadius;
+    private final HashSet<Animator> mRunningAnimations = new HashSet<>();
+    private final ArrayList<Animator> mTmpArray = new ArrayList<>();
+
     public FlingRipple(View v) {
         mHost = v;
         init();
@@ -123,19 +153,22 @@ public class FlingRipple implements View.OnTouchListener {
         return Color.argb(alpha, red, green, blue);
     }
 
-    @Override
-    public boolean onTouch(View v, MotionEvent event) {
-        final int action = event.getAction();
-        boolean isEventInBounds = bounds.contains((int) event.getX(), (int) event.getY());
+    public void onTouch(MotionSampleBuffer samples) {
+        final int action = samples.getActionMasked();
+        final int primary = samples.getPrimary();
+        final int x = (int) samples.getX(primary);
+        final int y = (int) samples.getY(primary);
+        boolean isEventInBounds = bounds.contains(x, y);
         if (isEventInBounds) {
             previousCoords.set(currentCoords.x, currentCoords.y);
-            currentCoords.set((int) event.getX(), (int) event.getY());
+            currentCoords.set(x, y);
         }
         switch (action) {
             case MotionEvent.ACTION_UP:
                 if (isEventInBounds) {
                     startRipple(null);
                 } else if (!rippleHover) {
+                    mDrawingHardwareRipple = false;
                     setRadius(0);
                 }
                 break;
@@ -154,20 +187,22 @@ public class FlingRipple implements View.OnTouchListener {
             case MotionEvent.ACTION_MOVE:
                 if (rippleHover) {
                     if (isEventInBounds && !eventCancelled) {
-                        mHost.invalidate();
+                        if (mDrawingHardwareRipple) {
+                            // follow the finger, radius keeps animating
+                            moveHardwareRipple();
+                        } else {
+                            mHost.invalidate();
+                        }
                     } else if (!isEventInBounds) {
                         startRipple(null);
                     }
                 }
                 if (!isEventInBounds) {
-                    if (hoverAnimator != null) {
-                        hoverAnimator.cancel();
-                    }
+                    cancelHover();
                     eventCancelled = true;
                 }
                 break;
         }
-        return false;
     }
 
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
@@ -176,10 +211,15 @@ public class FlingRipple implements View.OnTouchListener {
     }
 
     public void onDraw(Canvas canvas) {
+        mSupportHardware = canvas.isHardwareAccelerated();
         if (mDrawBackground) {
             rippleBackground.draw(canvas);
         }
-        canvas.drawCircle(currentCoords.x, currentCoords.y, radius, paint);
+        if (mSupportHardware && mDrawingHardwareRipple) {
+            ((DisplayListCanvas) canvas).drawCircle(mCxProp, mCyProp, mRadiusProp, mPaintProp);
+        } else {
+            canvas.drawCircle(currentCoords.x, currentCoords.y, radius, paint);
+        }
     }
 
     static int getSmallerDimen(int width, int height) {
@@ -201,6 +241,11 @@ public class FlingRipple implements View.OnTouchListener {
 
         float endRadius = getEndRadius();
 
+        if (mSupportHardware) {
+            startRippleHardware(endRadius);
+            return;
+        }
+
         cancelAnimations();
 
         rippleAnimator = new AnimatorSet();
@@ -247,6 +292,10 @@ public class FlingRipple implements View.OnTouchListener {
         }
         final float radius = (float) (Math.sqrt(Math.pow(mHost.getWidth(), 2)
                 + Math.pow(mHost.getHeight(), 2)) * 1.2f);
+        if (mSupportHardware) {
+            startHoverHardware(radius);
+            return;
+        }
         hoverAnimator = ObjectAnimator.ofFloat(this, radiusProperty, rippleDiameter, radius)
                 .setDuration(HOVER_DURATION);
         hoverAnimator.setInterpolator(new LinearInterpolator());
@@ -259,11 +308,145 @@ public class FlingRipple implements View.OnTouchListener {
             rippleAnimator.removeAllListeners();
         }
 
+        cancelHover();
+        cancelHardwareAnimations();
+    }
+
+    private void cancelHover() {
         if (hoverAnimator != null) {
             hoverAnimator.cancel();
         }
+        if (mHardwareHover != null) {
+            // remember where the RenderThread left the radius
+            radius = getRadius();
+            mHardwareHoverStart = 0;
+            mHardwareHover.cancel();
+            mHardwareHover = null;
+        }
+    }
+
+    private void cancelHardwareMove() {
+        if (mHardwareMoveX != null) {
+            mHardwareMoveX.cancel();
+            mHardwareMoveX = null;
+        }
+        if (mHardwareMoveY != null) {
+            mHardwareMoveY.cancel();
+            mHardwareMoveY = null;
+        }
+    }
+
+    private void cancelHardwareAnimations() {
+        cancelHardwareMove();
+        // out of the running set first, so the end listener ignores them
+        mTmpArray.addAll(mRunningAnimations);
+        mRunningAnimations.clear();
+        for (int i = 0; i < mTmpArray.size(); i++) {
+            mTmpArray.get(i).cancel();
+        }
+        mTmpArray.clear();
+    }
+
+    /*
+     * Fresh properties for the circle at the current touch point
+     */
+    private void createHardwareProps(float startRadius) {
+        mCxProp = CanvasProperty.createFloat(currentCoords.x);
+        mCyProp = CanvasProperty.createFloat(currentCoords.y);
+        mRadiusProp = CanvasProperty.createFloat(startRadius);
+        paint.setAlpha(rippleAlpha);
+        mPaintProp = CanvasProperty.createPaint(paint);
+        mDrawingHardwareRipple = true;
     }
 
+    /*
+     * Same properties, new center. The display list stays as recorded, only
+     * the RenderThread values change
+     */
+    private void moveHardwareRipple() {
+        if (currentCoords.equals(previousCoords)) {
+            return;
+        }
+        cancelHardwareMove();
+        mHardwareMoveX = new RenderNodeAnimator(mCxProp, currentCoords.x);
+        mHardwareMoveX.setDuration(0);
+        mHardwareMoveX.setTarget(mHost);
+        mHardwareMoveX.start();
+        mHardwareMoveY = new RenderNodeAnimator(mCyProp, currentCoords.y);
+        mHardwareMoveY.setDuration(0);
+        mHardwareMoveY.setTarget(mHost);
+        mHardwareMoveY.start();
+    }
+
+    private void startHoverHardware(float endRadius) {
+        cancelAnimations();
+        createHardwareProps(rippleDiameter);
+        mHardwareHover = new RenderNodeAnimator(mRadiusProp, endRadius);
+        mHardwareHover.setDuration(HOVER_DURATION);
+        mHardwareHover.setInterpolator(new LinearInterpolator());
+        mHardwareHover.setTarget(mHost);
+        mHardwareHover.start();
+        mHardwareHoverStart = SystemClock.uptimeMillis();
+        mHardwareHoverFrom = rippleDiameter;
+        mHardwareHoverTo = endRadius;
+        mHost.invalidate();
+    }
+
+    private void startRippleHardware(float endRadius) {
+        final float startRadius = getRadius();
+        if (mHardwareHover == null) {
+            // nothing to take over, start at the touch point
+            createHardwareProps(startRadius);
+        }
+        // the ripple animators take the radius over from wherever hover left it
+        cancelHover();
+        cancelHardwareAnimations();
+        mHardwareEndRadius = endRadius;
+
+        final boolean fadeOnly = !ripplePersistent && startRadius > endRadius;
+        if (!fadeOnly) {
+            final RenderNodeAnimator ripple = new RenderNodeAnimator(mRadiusProp, endRadius);
+            ripple.setDuration(rippleDuration);
+            ripple.setInterpolator(new DecelerateInterpolator());
+            startHardwareAnimation(ripple);
+        }
+        if (!ripplePersistent) {
+            final RenderNodeAnimator fade = new RenderNodeAnimator(mPaintProp,
+                    RenderNodeAnimator.PAINT_ALPHA, 0);
+            fade.setDuration(rippleFadeDuration);
+            fade.setInterpolator(new AccelerateInterpolator());
+            fade.setStartDelay(fadeOnly ? 0
+                    : Math.max(0, rippleDuration - rippleFadeDuration - FADE_EXTRA_DELAY));
+            startHardwareAnimation(fade);
+        }
+        mHost.invalidate();
+    }
+
+    private void startHardwareAnimation(RenderNodeAnimator animator) {
+        animator.addListener(mHardwareListener);
+        animator.setTarget(mHost);
+        animator.start();
+        mRunningAnimations.add(animator);
+    }
+
+    private final AnimatorListenerAdapter mHardwareListener = new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            if (!mRunningAnimations.remove(animation) || !mRunningAnimations.isEmpty()) {
+                return;
+            }
+            // same end state as the software ripple
+            if (ripplePersistent) {
+                radius = mHardwareEndRadius;
+            } else {
+                radius = 0;
+                mDrawingHardwareRipple = false;
+            }
+            mDrawBackground = false;
+            mHost.invalidate();
+        }
+    };
+
     private float getEndRadius() {
         final int width = mHost.getWidth();
         final int height = mHost.getHeight();
@@ -293,6 +476,11 @@ public class FlingRipple implements View.OnTouchListener {
     };
 
     private float getRadius() {
+        if (mHardwareHoverStart != 0) {
+            final float progress = Math.min(1f,
+                    (SystemClock.uptimeMillis() - mHardwareHoverStart) / (float) HOVER_DURATION);
+            return mHardwareHoverFrom + (mHardwareHoverTo - mHardwareHoverFrom) * progress;
+        }
         return radius;
     }
 
@@ -1,7 +1,7 @@
 /**
  * Copyright (C) 2014 The TeamEos Project
  * Copyright (C) 2016 The DirtyUnicorns Project
- * 
+ *
  * @author: Randall Rushing <randall.rushing@gmail.com>
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,57 +16,77 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  *
- * Fling implementation of the trail-drawing library found at
- * https://github.com/Orange-OpenSource/trail-drawing
+ * Fling finger trail. Points of the primary pointer go into a fixed ring,
+ * so a long gesture overwrites its oldest points instead of growing. Each
+ * point is fully opaque for HOLD_NANOS and gone FADE_NANOS later; a frame
+ * walks the ring once, oldest first, and draws every run of segments in
+ * the same fade bucket through one reused Path. Only the area the trail
+ * covers, now or on the last frame, is invalidated
  *
  */
 
 package com.android.systemui.navigation.fling;
 
 import com.android.internal.utils.du.DUActionUtils;
-import com.orange.dgil.trail.android.AndroidMetrics;
-import com.orange.dgil.trail.android.animation.IAnimListener;
-import com.orange.dgil.trail.android.impl.TrailDrawer;
 
-import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.os.SystemProperties;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
 import android.view.MotionEvent;
 import android.view.View;
 
-public class FlingTrails implements View.OnTouchListener, IAnimListener {
+public class FlingTrails {
     public static final String TAG = FlingTrails.class.getSimpleName();
     public static final int TRAIL_WIDTH_DEFAULT = 15;
 
-    private static final int ANIM_DELAY = 100;
-    private static final int ANIM_DURATION = 400;
+    // most recent samples of a move batch fed to the trail
+    private static final int MAX_MOVE_POINTS = 26;
     // trail width constraints, in density pixels
     private static final int TRAIL_WIDTH_MIN = 1;
     private static final int TRAIL_WIDTH_MAX = 25;
-    private TrailDrawer mTrailDrawer;
+
+    // power of two so the ring wraps with a mask
+    private static final int CAPACITY = 128;
+    private static final int MASK = CAPACITY - 1;
+    // points closer than this to the last one add nothing visible
+    private static final float MIN_DISTANCE = 1.5f;
+    private static final long HOLD_NANOS = 100 * 1000000L;
+    private static final long FADE_NANOS = 400 * 1000000L;
+    // opaque bucket plus fade steps
+    private static final int BUCKETS = 5;
+
+    private final float[] mX = new float[CAPACITY];
+    private final float[] mY = new float[CAPACITY];
+    private final long[] mTime = new long[CAPACITY];
+    private int mOldest;
+    private int mCount;
+
+    private final Path mPath = new Path();
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // what the last frame drew over, empty if nothing
+    private final Rect mDrawn = new Rect();
+    private final Rect mDirty = new Rect();
+
     private boolean mEnabled;
     private View mHost;
     private int mTrailColor = Color.WHITE;
 
     public FlingTrails(View v) {
         mHost = v;
-        mTrailDrawer = new TrailDrawer(v);
-        mTrailDrawer.setMultistrokeEnabled(false);
-        mTrailDrawer.getTrailOptions().setColor(mTrailColor);
-        mTrailDrawer.getTrailOptions().selectMarkerPen();
-        mTrailDrawer.getTrailOptions().setShadowEnabled(true);
-        mTrailDrawer.getAnimationParameters().setTimeProperties(ANIM_DELAY, ANIM_DURATION);
-        mTrailDrawer.getAnimationParameters().setColorProperties(mTrailColor, mTrailColor);
-        mTrailDrawer.getAnimationParameters().setColorForAlphaAnimation(mTrailColor);
-        mTrailDrawer.setAnimationListener(this);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+        mPaint.setStrokeWidth(DUActionUtils.ConvertDpToPixelAsInt(TRAIL_WIDTH_DEFAULT,
+                v.getContext()));
     }
 
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
         if (w == 0 || h == 0) {
             return;
         }
-        mTrailDrawer.clear();
+        clear();
     }
 
     public boolean isEnabled() {
@@ -76,66 +96,189 @@ public class FlingTrails implements View.OnTouchListener, IAnimListener {
     public void setTrailsEnabled(boolean enabled) {
         if (mEnabled != enabled) {
             mEnabled = enabled;
+            clear();
         }
     }
 
     public void setTrailColor(int color) {
-        if (mTrailColor != color) {
-            mTrailColor = color;
-            mTrailDrawer.getTrailOptions().setColor(color);
-            mTrailDrawer.getAnimationParameters().setColorProperties(color, color);
-            mTrailDrawer.getAnimationParameters().setColorForAlphaAnimation(color);
-        }
+        mTrailColor = color;
     }
 
     public void setTrailWidth(int dp) {
-        mTrailDrawer.clear();
-        int px = DUActionUtils.ConvertDpToPixelAsInt(validateTrailWidthRange(dp), mHost.getContext());
-        int microns = AndroidMetrics.get(mHost.getContext()).pixelsToMicrometers(px);
-        mTrailDrawer.getTrailOptions().setTrailWidthMicrometers(microns);
-    }
-
-    public void onDraw(Canvas canvas) {
-        if (mEnabled) {
-            mTrailDrawer.draw(canvas);
-        }
-    }
-
-    @Override
-    public void animationFinished() {
-        mTrailDrawer.clear();
-        mHost.invalidate();
+        clear();
+        mPaint.setStrokeWidth(DUActionUtils.ConvertDpToPixelAsInt(validateTrailWidthRange(dp),
+                mHost.getContext()));
     }
 
-    @Override
-    public boolean onTouch(View v, MotionEvent event) {
-        switch (event.getActionMasked()) {
+    public void onTouch(MotionSampleBuffer samples) {
+        switch (samples.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                mTrailDrawer.touchDown((int) event.getX(), (int) event.getY());
+                // one stroke at a time
+                invalidateTrail();
+                mCount = 0;
+                final int down = samples.getPrimary();
+                addPoint(samples.getX(down), samples.getY(down), samples.getTime(down));
                 break;
             case MotionEvent.ACTION_MOVE:
-                int oldestPoint = event.getHistorySize() - 25;
-                if (oldestPoint < 0) {
-                    oldestPoint = 0;
+                // walk back to the oldest primary sample we care about
+                final int pointer = samples.getPrimaryPointer();
+                final int start = samples.getEventStart();
+                int first = samples.getEnd();
+                int points = 0;
+                for (int i = first - 1; i >= start && points < MAX_MOVE_POINTS; i--) {
+                    if (samples.getPointer(i) == pointer) {
+                        first = i;
+                        points++;
+                    }
                 }
-                for (int i = oldestPoint; i < event.getHistorySize(); i++) {
-                    onMove(event.getHistoricalX(i), event.getHistoricalY(i));
+                for (int i = first; i < samples.getEnd(); i++) {
+                    if (samples.getPointer(i) == pointer) {
+                        addPoint(samples.getX(i), samples.getY(i), samples.getTime(i));
+                    }
                 }
-                onMove(event.getX(), event.getY());
-                break;
-            case MotionEvent.ACTION_UP:
-                mTrailDrawer.touchUp();
-                mTrailDrawer.animate();
                 break;
             default:
-                mTrailDrawer.touchCancel();
-                mTrailDrawer.animate();
+                // the trail fades out on its own
+                break;
+        }
+        invalidateTrail();
+    }
+
+    public void onDraw(Canvas canvas) {
+        if (!mEnabled) {
+            return;
+        }
+        final long now = System.nanoTime();
+        dropExpired(now);
+        if (mCount == 0) {
+            if (!mDrawn.isEmpty()) {
+                // erase the last frame
+                mHost.postInvalidateOnAnimation(mDrawn.left, mDrawn.top, mDrawn.right,
+                        mDrawn.bottom);
+                mDrawn.setEmpty();
+            }
+            return;
+        }
+
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        int bucket = 0;
+        mPath.rewind();
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mOldest + i) & MASK;
+            final float x = mX[index];
+            final float y = mY[index];
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+            if (i == 0) {
+                bucket = getBucket(now - mTime[index]);
+                mPath.moveTo(x, y);
+                if (mCount == 1) {
+                    // round caps turn this into a dot
+                    mPath.lineTo(x, y);
+                }
+                continue;
+            }
+            // segments take the bucket of their older end
+            mPath.lineTo(x, y);
+            final int next = getBucket(now - mTime[index]);
+            if (next != bucket) {
+                drawBucket(canvas, bucket);
+                mPath.rewind();
+                mPath.moveTo(x, y);
+                bucket = next;
+            }
+        }
+        drawBucket(canvas, bucket);
+
+        mDrawn.set((int) left, (int) top, (int) right + 1, (int) bottom + 1);
+        inset(mDrawn);
+        // keep fading
+        invalidateTrail();
+    }
+
+    private void drawBucket(Canvas canvas, int bucket) {
+        if (mPath.isEmpty()) {
+            return;
+        }
+        // middle of the bucket's fade range, bucket 0 is opaque
+        final float fade = bucket == 0 ? 1f : 1f - (bucket - 0.5f) / (BUCKETS - 1);
+        mPaint.setColor(mTrailColor);
+        mPaint.setAlpha((int) (Color.alpha(mTrailColor) * fade));
+        canvas.drawPath(mPath, mPaint);
+    }
+
+    private static int getBucket(long ageNanos) {
+        if (ageNanos < HOLD_NANOS) {
+            return 0;
+        }
+        final int bucket = 1 + (int) ((ageNanos - HOLD_NANOS) * (BUCKETS - 1) / FADE_NANOS);
+        return Math.min(BUCKETS - 1, bucket);
+    }
+
+    private void addPoint(float x, float y, long timeNanos) {
+        if (mCount > 0) {
+            final int last = (mOldest + mCount - 1) & MASK;
+            if (Math.abs(x - mX[last]) < MIN_DISTANCE && Math.abs(y - mY[last]) < MIN_DISTANCE) {
+                return;
+            }
+        }
+        final int index;
+        if (mCount == CAPACITY) {
+            // overwrite the oldest
+            index = mOldest;
+            mOldest = (mOldest + 1) & MASK;
+        } else {
+            index = (mOldest + mCount) & MASK;
+            mCount++;
+        }
+        mX[index] = x;
+        mY[index] = y;
+        mTime[index] = timeNanos;
+    }
+
+    private void dropExpired(long now) {
+        while (mCount > 0 && now - mTime[mOldest] >= HOLD_NANOS + FADE_NANOS) {
+            mOldest = (mOldest + 1) & MASK;
+            mCount--;
+        }
+    }
+
+    /*
+     * Next frame has to cover the points held now and whatever the last
+     * frame drew, in case points went away
+     */
+    private void invalidateTrail() {
+        mDirty.setEmpty();
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mOldest + i) & MASK;
+            final int x = (int) mX[index];
+            final int y = (int) mY[index];
+            mDirty.union(x, y, x + 1, y + 1);
+        }
+        inset(mDirty);
+        mDirty.union(mDrawn);
+        if (!mDirty.isEmpty()) {
+            mHost.postInvalidateOnAnimation(mDirty.left, mDirty.top, mDirty.right,
+                    mDirty.bottom);
+        }
+    }
+
+    // grow by the stroke reach, round caps included
+    private void inset(Rect rect) {
+        if (rect.isEmpty()) {
+            return;
         }
-        return false;
+        final int reach = (int) Math.ceil(mPaint.getStrokeWidth() / 2) + 1;
+        rect.inset(-reach, -reach);
     }
 
-    private void onMove(float x, float y) {
-        mTrailDrawer.touchMove((int) x, (int) y);
+    private void clear() {
+        invalidateTrail();
+        mCount = 0;
+        mDrawn.setEmpty();
     }
 
     private static int validateTrailWidthRange(int dp) {
@@ -22,6 +22,11 @@
 
 package com.android.systemui.navigation.fling;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -37,10 +42,12 @@ import com.android.systemui.navigation.fling.FlingLogoView;
 import com.android.systemui.navigation.fling.FlingRipple;
 import com.android.systemui.navigation.fling.FlingTrails;
 import com.android.systemui.navigation.fling.FlingView;
+import com.android.systemui.navigation.fling.MotionSampleBuffer;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.statusbar.phone.PhoneStatusBar;
 import com.android.internal.utils.du.ActionConstants;
+import com.android.internal.utils.du.DUActionUtils;
 
 import android.content.Context;
 import android.content.res.Resources;
@@ -48,6 +55,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.PowerManager;
 import android.os.UserHandle;
 import android.provider.Settings;
@@ -63,6 +71,8 @@ import android.widget.ImageView;
 
 public class FlingView extends BaseNavigationBar {
     final static String TAG = FlingView.class.getSimpleName();
+    // longest a dump waits on the UI thread for recording or replay
+    private static final long DUMP_TIMEOUT = 30 * 1000;
 
     private static Set<Uri> sUris = new HashSet<Uri>();    
     static {
@@ -83,6 +93,12 @@ public class FlingView extends BaseNavigationBar {
     private PowerManager mPm;
     private FlingRipple mRipple;
     private FlingTrails mTrails;
+    private final MotionSampleBuffer mMotionSamples = new MotionSampleBuffer();
+    private final FlingLatencyStats mLatencyStats = new FlingLatencyStats();
+    // every gesture timeout, shared by the detector and the gesture handler
+    private final GestureTimer mGestureTimer = new GestureTimer(new Handler());
+    // opt in touch recording for GestureReplay, see onDump()
+    private final GestureRecorder mGestureRecorder = new GestureRecorder();
 
     private SmartObservable mObservable = new SmartObservable() {
         @Override
@@ -104,8 +120,9 @@ public class FlingView extends BaseNavigationBar {
         static final int LP_TIMEOUT_MIN = 25;
         private int mLongPressTimeout = LP_TIMEOUT;
 
-        public FlingGestureDetectorPriv(Context context, OnGestureListener listener) {
-            super(context, listener, null);
+        public FlingGestureDetectorPriv(Context context, OnGestureListener listener,
+                GestureTimer timer) {
+            super(context, listener, timer);
             // TODO Auto-generated constructor stub
         }
 
@@ -138,22 +155,28 @@ public class FlingView extends BaseNavigationBar {
                     || action == MotionEvent.ACTION_CANCEL) {
                 mLogoController.onTouchShow(null);
             }
+            if (mGestureRecorder.isRecording()) {
+                mGestureRecorder.record(event);
+            }
+            // unpack the event once for everybody below
+            mMotionSamples.add(event);
             if (mRippleEnabled) {
-                mRipple.onTouch(FlingView.this, event);
+                mRipple.onTouch(mMotionSamples);
             }
             if (mTrails.isEnabled()) {
-                mTrails.onTouch(FlingView.this, event);
+                mTrails.onTouch(mMotionSamples);
             }
-            return mGestureDetector.onTouchEvent(event);
+            return mGestureDetector.onTouchEvent(event, mMotionSamples);
         }
     };
 
     public FlingView(Context context, AttributeSet attrs) {
         super(context, attrs);
         mBarTransitions = new FlingBarTransitions(this);
-        mActionHandler = new FlingActionHandler(context, this);
-        mGestureHandler = new FlingGestureHandler(context, mActionHandler, this, BaseNavigationBar.sIsTablet);
-        mGestureDetector = new FlingGestureDetectorPriv(context, mGestureHandler);
+        mActionHandler = new FlingActionHandler(context, this, mLatencyStats);
+        mGestureHandler = new FlingGestureHandler(context, mActionHandler, this,
+                BaseNavigationBar.sIsTablet, mLatencyStats, mGestureTimer);
+        mGestureDetector = new FlingGestureDetectorPriv(context, mGestureHandler, mGestureTimer);
         setOnTouchListener(mFlingTouchListener);
 
         // CM bases: turn this on for an extra bump ;D
@@ -283,6 +306,7 @@ public class FlingView extends BaseNavigationBar {
     public void reorient() {
         super.reorient();
         mBarTransitions.init();
+        mGestureHandler.reorient();
         mLogoController.setLogoView(getFlingLogo());
         mLogoController.setLogoIcon();
         setDisabledFlags(mDisabledFlags, true /* force */);
@@ -304,6 +328,7 @@ public class FlingView extends BaseNavigationBar {
         super.onSizeChanged(w, h, oldw, oldh);
         mRipple.onSizeChanged(w, h, oldw, oldh);
         mTrails.onSizeChanged(w, h, oldw, oldh);
+        mGestureHandler.onSizeChanged(w, h);
     }
 
     @Override
@@ -322,6 +347,79 @@ public class FlingView extends BaseNavigationBar {
         }
     }
 
+    @Override
+    protected void onDump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mLatencyStats.dump(pw);
+        if (args == null) {
+            return;
+        }
+        // optional file name after each, in our files dir
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (GestureRecorder.START_ARG.equals(arg) || GestureRecorder.STOP_ARG.equals(arg)
+                    || GestureReplay.DUMP_ARG.equals(arg)) {
+                final boolean hasFile = i + 1 < args.length && !args[i + 1].startsWith("--");
+                final String name = hasFile ? args[i + 1] : GestureRecorder.FILE_NAME;
+                if (name.indexOf(File.separatorChar) >= 0 || ".".equals(name)
+                        || "..".equals(name)) {
+                    pw.println("    " + arg + ": file name only, files go in "
+                            + getContext().getFilesDir());
+                    continue;
+                }
+                dumpOnLooper(pw, arg, new File(getContext().getFilesDir(), name));
+            } else if (SwipeClassifierCheck.DUMP_ARG.equals(arg)) {
+                SwipeClassifierCheck.run(pw);
+            }
+        }
+    }
+
+    /*
+     * Recording and replay touch what the UI thread owns, gesture handling
+     * and action config included, so they run there. We only print here
+     */
+    private void dumpOnLooper(PrintWriter pw, final String arg, final File file) {
+        final StringWriter out = new StringWriter();
+        final PrintWriter looperPw = new PrintWriter(out);
+        final boolean done = getHandler().runWithScissors(new Runnable() {
+            @Override
+            public void run() {
+                dumpGestureArg(looperPw, arg, file);
+            }
+        }, DUMP_TIMEOUT);
+        if (!done) {
+            pw.println("    " + arg + ": timed out");
+            return;
+        }
+        looperPw.flush();
+        pw.print(out.toString());
+    }
+
+    private void dumpGestureArg(PrintWriter pw, String arg, File file) {
+        if (GestureRecorder.START_ARG.equals(arg)) {
+            int flags = 0;
+            if (mLeftInLandscape) {
+                flags |= GestureRecorder.FLAG_LEFT_IN_LANDSCAPE;
+            }
+            if (DUActionUtils.isLandscape(getContext())) {
+                flags |= GestureRecorder.FLAG_LANDSCAPE;
+            }
+            mGestureRecorder.start(getWidth(), getHeight(), flags);
+            pw.println("    GestureRecorder: recording");
+        } else if (GestureRecorder.STOP_ARG.equals(arg)) {
+            try {
+                final long bytes = mGestureRecorder.stop(file);
+                pw.println("    GestureRecorder: " + (bytes < 0 ? "not recording"
+                        : "wrote " + bytes + " bytes to " + file
+                        + (mGestureRecorder.isFull() ? ", size limit hit" : "")));
+            } catch (IOException e) {
+                pw.println("    GestureRecorder: failed to write " + file + ": " + e);
+            }
+        } else if (GestureReplay.DUMP_ARG.equals(arg)) {
+            GestureReplay.run(pw, getContext(), file, mActionHandler,
+                    mGestureDetector.getLongPressTimeout());
+        }
+    }
+
     @Override
     protected void onDispose() {
     }
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Opt in recording of the touch stream Fling sees, batched history
+ * included, for GestureReplay. Started and stopped from the navigation bar
+ * dump. Events are encoded into memory as they arrive and written out when
+ * recording stops
+ *
+ * Format, big endian: header of int MAGIC, byte VERSION, short bar width,
+ * short bar height, byte FLAG_* and long start time in microseconds. Then
+ * per event: byte masked action, byte action index, byte pointer count,
+ * varint history size and a byte id per pointer, followed by history size
+ * + 1 rows oldest first. A row is a varint of microseconds since the
+ * previous row, then float x and y per pointer
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.view.MotionEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public final class GestureRecorder {
+    public static final String START_ARG = "--fling-record-start";
+    public static final String STOP_ARG = "--fling-record-stop";
+    public static final String FILE_NAME = "fling_gestures.bin";
+
+    static final int MAGIC = 0x464c4e47; // FLNG
+    static final int VERSION = 1;
+    static final int FLAG_LEFT_IN_LANDSCAPE = 1 << 0;
+    static final int FLAG_LANDSCAPE = 1 << 1;
+
+    // stop taking events past this, a forgotten recording stays bounded
+    private static final int MAX_BYTES = 4 * 1024 * 1024;
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    private ByteArrayOutputStream mBytes;
+    private volatile DataOutputStream mOut;
+    private long mLastMicros;
+    private boolean mFull;
+
+    /**
+     * Checked on every touch event, so cheap and racy on purpose
+     */
+    public boolean isRecording() {
+        return mOut != null;
+    }
+
+    public synchronized void start(int width, int height, int flags) {
+        mBytes = new ByteArrayOutputStream(64 * 1024);
+        mOut = new DataOutputStream(mBytes);
+        mFull = false;
+        mLastMicros = System.nanoTime() / NANOS_PER_MICRO;
+        try {
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+            mOut.writeShort(width);
+            mOut.writeShort(height);
+            mOut.writeByte(flags);
+            mOut.writeLong(mLastMicros);
+        } catch (IOException e) {
+            // memory stream, never
+        }
+    }
+
+    public synchronized void record(MotionEvent ev) {
+        if (mOut == null || mFull) {
+            return;
+        }
+        if (mBytes.size() > MAX_BYTES) {
+            mFull = true;
+            return;
+        }
+        try {
+            final int pointers = ev.getPointerCount();
+            final int history = ev.getHistorySize();
+            mOut.writeByte(ev.getActionMasked());
+            mOut.writeByte(ev.getActionIndex());
+            mOut.writeByte(pointers);
+            writeVarLong(mOut, history);
+            for (int p = 0; p < pointers; p++) {
+                mOut.writeByte(ev.getPointerId(p));
+            }
+            for (int h = 0; h < history; h++) {
+                writeTime(ev.getHistoricalEventTimeNano(h));
+                for (int p = 0; p < pointers; p++) {
+                    mOut.writeFloat(ev.getHistoricalX(p, h));
+                    mOut.writeFloat(ev.getHistoricalY(p, h));
+                }
+            }
+            writeTime(ev.getEventTimeNano());
+            for (int p = 0; p < pointers; p++) {
+                mOut.writeFloat(ev.getX(p));
+                mOut.writeFloat(ev.getY(p));
+            }
+        } catch (IOException e) {
+            // memory stream, never
+        }
+    }
+
+    /**
+     * Write what was recorded to file and stop
+     *
+     * @return bytes written, -1 if nothing was being recorded
+     */
+    public synchronized long stop(File file) throws IOException {
+        if (mOut == null) {
+            return -1;
+        }
+        final ByteArrayOutputStream bytes = mBytes;
+        mOut = null;
+        mBytes = null;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            bytes.writeTo(out);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        return bytes.size();
+    }
+
+    /**
+     * @return true if the recording hit its size limit and dropped events
+     */
+    public synchronized boolean isFull() {
+        return mFull;
+    }
+
+    private void writeTime(long nanos) throws IOException {
+        // time never runs backwards in the file
+        final long micros = Math.max(mLastMicros, nanos / NANOS_PER_MICRO);
+        writeVarLong(mOut, micros - mLastMicros);
+        mLastMicros = micros;
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Plays a GestureRecorder file through a fresh FlingGestureDetector and
+ * FlingGestureHandler using the current settings and the recorded bar
+ * size and orientation, with every timeout on a virtual clock driven by
+ * the recorded event times. The same recording
+ * and settings always classify the same way, so threshold changes can be
+ * checked against real sessions. Reports every gesture Fling decided on
+ * and what each event cost to process. Runs when DUMP_ARG is passed to the
+ * navigation bar dump
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import com.android.systemui.navigation.BaseNavigationBar;
+import com.android.systemui.navigation.fling.FlingGestureHandler.Swipeable;
+import com.android.systemui.navigation.utils.TimingHistogram;
+
+import android.content.Context;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
+import android.view.MotionEvent.PointerProperties;
+import android.view.View;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+public final class GestureReplay {
+    public static final String DUMP_ARG = "--fling-replay";
+
+    // gestures listed one per line up to this many, counts cover all
+    private static final int MAX_LISTED = 500;
+    // run out timeouts still pending when the recording ends
+    private static final long DRAIN_MILLIS = 10 * 1000;
+    private static final long MICROS_PER_MS = 1000L;
+    // what MotionEvent takes, and far more history than one event batches
+    private static final int MAX_POINTERS = 16;
+    private static final int MAX_POINTER_ID = 31;
+    private static final int MAX_HISTORY = 1024;
+
+    private static final int COST_DOWN = 0;
+    private static final int COST_MOVE = 1;
+    private static final int COST_UP = 2;
+    private static final int COST_OTHER = 3;
+    private static final int COST_TIMEOUTS = 4;
+    private static final String[] COST_NAMES = {
+            "down", "move", "up", "other", "timeouts"
+    };
+
+    private GestureReplay() {}
+
+    private static final class BadFileException extends IOException {
+        BadFileException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class ReplayDetector extends FlingGestureDetector {
+        private final int mLongPressTimeout;
+
+        ReplayDetector(Context context, OnGestureListener listener, GestureTimer timer,
+                int longPressTimeout) {
+            super(context, listener, timer);
+            mLongPressTimeout = longPressTimeout;
+        }
+
+        @Override
+        protected int getLongPressTimeout() {
+            return mLongPressTimeout;
+        }
+    }
+
+    /*
+     * Collects what Fling decided. Double tap waits follow the live
+     * action config so taps classify like they would on the bar
+     */
+    private static final class Outcomes implements Swipeable {
+        final int[] mCounts = new int[FlingGestures.COUNT];
+        final int[] mPredicted = new int[FlingGestures.COUNT];
+        final StringBuilder mList = new StringBuilder();
+        final Swipeable mConfig;
+        final GestureTimer mTimer;
+        long mStartMillis;
+        int mTotal;
+
+        Outcomes(Swipeable config, GestureTimer timer) {
+            mConfig = config;
+            mTimer = timer;
+        }
+
+        private void onSlot(int slot) {
+            mCounts[slot]++;
+            if (mTotal++ < MAX_LISTED) {
+                mList.append("      +").append(mTimer.now() - mStartMillis).append("ms ")
+                        .append(FlingGestures.toString(slot)).append('\n');
+            }
+        }
+
+        @Override
+        public boolean onDoubleTapEnabled(boolean isRight) {
+            return mConfig.onDoubleTapEnabled(isRight);
+        }
+
+        @Override
+        public void onSingleLeftPress() {
+            onSlot(FlingGestures.SINGLE_LEFT_TAP);
+        }
+
+        @Override
+        public void onSingleRightPress() {
+            onSlot(FlingGestures.SINGLE_RIGHT_TAP);
+        }
+
+        @Override
+        public void onDoubleLeftTap() {
+            onSlot(FlingGestures.DOUBLE_LEFT_TAP);
+        }
+
+        @Override
+        public void onDoubleRightTap() {
+            onSlot(FlingGestures.DOUBLE_RIGHT_TAP);
+        }
+
+        @Override
+        public void onLongLeftPress() {
+            onSlot(FlingGestures.LONG_LEFT_PRESS);
+        }
+
+        @Override
+        public void onLongRightPress() {
+            onSlot(FlingGestures.LONG_RIGHT_PRESS);
+        }
+
+        @Override
+        public void onShortLeftSwipe() {
+            onSlot(FlingGestures.SHORT_LEFT_SWIPE);
+        }
+
+        @Override
+        public void onLongLeftSwipe() {
+            onSlot(FlingGestures.LONG_LEFT_SWIPE);
+        }
+
+        @Override
+        public void onShortRightSwipe() {
+            onSlot(FlingGestures.SHORT_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onLongRightSwipe() {
+            onSlot(FlingGestures.LONG_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onUpRightSwipe() {
+            onSlot(FlingGestures.UP_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onUpLeftSwipe() {
+            onSlot(FlingGestures.UP_LEFT_SWIPE);
+        }
+
+        @Override
+        public void onSwipePredicted(int slot, float confidence) {
+            mPredicted[slot]++;
+        }
+    }
+
+    /**
+     * @param config - answers whether taps wait for a double tap
+     * @param longPressTimeout - long press timeout the bar uses now
+     */
+    public static void run(PrintWriter pw, Context context, File file, Swipeable config,
+            int longPressTimeout) {
+        pw.println("    GestureReplay {");
+        pw.println("      file=" + file);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            replay(pw, context, in, config, longPressTimeout);
+        } catch (BadFileException e) {
+            pw.println("      bad file: " + e.getMessage());
+        } catch (EOFException e) {
+            pw.println("      bad file: truncated");
+        } catch (IOException e) {
+            pw.println("      failed: " + e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        pw.println("    }");
+    }
+
+    private static void replay(PrintWriter pw, Context context, DataInputStream in,
+            Swipeable config, int longPressTimeout) throws IOException {
+        if (in.readInt() != GestureRecorder.MAGIC) {
+            throw new IOException("Not a gesture recording");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != GestureRecorder.VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        final int width = in.readUnsignedShort();
+        final int height = in.readUnsignedShort();
+        final int flags = in.readUnsignedByte();
+        long micros = in.readLong();
+        check(width > 0 && height > 0, "bar " + width + "x" + height);
+
+        final boolean landscape = (flags & GestureRecorder.FLAG_LANDSCAPE) != 0;
+        pw.println("      bar=" + width + "x" + height
+                + " landscape=" + landscape
+                + " leftInLandscape=" + ((flags & GestureRecorder.FLAG_LEFT_IN_LANDSCAPE) != 0)
+                + " longPressTimeout=" + longPressTimeout);
+
+        // never attached, only here to give the gesture handler a size
+        final View host = new View(context);
+        host.layout(0, 0, width, height);
+        final GestureTimer timer = GestureTimer.createVirtual();
+        final Outcomes outcomes = new Outcomes(config, timer);
+        final FlingGestureHandler handler = new FlingGestureHandler(context, outcomes, host,
+                BaseNavigationBar.sIsTablet, new FlingLatencyStats(), timer);
+        handler.setLeftInLandscape((flags & GestureRecorder.FLAG_LEFT_IN_LANDSCAPE) != 0);
+        handler.setFixedOrientation(landscape);
+        handler.onSizeChanged(width, height);
+        final FlingGestureDetector detector = new ReplayDetector(context, handler, timer,
+                longPressTimeout);
+        final MotionSampleBuffer samples = new MotionSampleBuffer();
+
+        final TimingHistogram[] costs = new TimingHistogram[COST_NAMES.length];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = new TimingHistogram();
+        }
+        PointerProperties[] props = new PointerProperties[0];
+        PointerCoords[] coords = new PointerCoords[0];
+        long downTime = 0;
+        int events = 0;
+        boolean started = false;
+
+        while (true) {
+            final int action;
+            try {
+                action = in.readUnsignedByte();
+            } catch (EOFException e) {
+                break;
+            }
+            final int actionIndex = in.readUnsignedByte();
+            final int pointers = in.readUnsignedByte();
+            final long history = GestureRecorder.readVarLong(in);
+            check(action <= MotionEvent.ACTION_POINTER_UP, "event " + events
+                    + " action=" + action);
+            check(pointers > 0 && pointers <= MAX_POINTERS, "event " + events
+                    + " pointers=" + pointers);
+            check(actionIndex < pointers, "event " + events + " actionIndex=" + actionIndex);
+            check(history >= 0 && history <= MAX_HISTORY, "event " + events
+                    + " history=" + history);
+            if (props.length < pointers) {
+                props = PointerProperties.createArray(pointers);
+                coords = PointerCoords.createArray(pointers);
+            }
+            int ids = 0;
+            for (int p = 0; p < pointers; p++) {
+                props[p].clear();
+                props[p].id = in.readUnsignedByte();
+                props[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+                check(props[p].id <= MAX_POINTER_ID && (ids & (1 << props[p].id)) == 0,
+                        "event " + events + " pointer id " + props[p].id);
+                ids |= 1 << props[p].id;
+            }
+
+            MotionEvent ev = null;
+            for (int row = 0; row <= history; row++) {
+                micros += GestureRecorder.readVarLong(in);
+                for (int p = 0; p < pointers; p++) {
+                    coords[p].clear();
+                    coords[p].x = in.readFloat();
+                    coords[p].y = in.readFloat();
+                    coords[p].pressure = 1f;
+                    coords[p].size = 1f;
+                }
+                final long millis = micros / MICROS_PER_MS;
+                if (ev == null) {
+                    if (action == MotionEvent.ACTION_DOWN) {
+                        downTime = millis;
+                    }
+                    ev = MotionEvent.obtain(downTime, millis,
+                            action | (actionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT),
+                            pointers, props, coords, 0, 0, 1f, 1f, 0, 0,
+                            InputDevice.SOURCE_TOUCHSCREEN, 0);
+                } else {
+                    ev.addBatch(millis, coords, 0);
+                }
+            }
+
+            // timeouts due before this event run first, like on the looper
+            final long eventMillis = ev.getEventTime();
+            if (!started) {
+                outcomes.mStartMillis = eventMillis;
+                started = true;
+            }
+            long start = System.nanoTime();
+            timer.advanceTo(eventMillis);
+            costs[COST_TIMEOUTS].record(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            samples.add(ev);
+            detector.onTouchEvent(ev, samples);
+            costs[costIndex(action)].record(System.nanoTime() - start);
+            ev.recycle();
+            events++;
+        }
+        if (started) {
+            timer.advanceTo(timer.now() + DRAIN_MILLIS);
+        }
+
+        pw.println("      events=" + events + " gestures=" + outcomes.mTotal);
+        for (int i = 0; i < FlingGestures.COUNT; i++) {
+            if (outcomes.mCounts[i] != 0 || outcomes.mPredicted[i] != 0) {
+                pw.println("      " + FlingGestures.toString(i) + ": " + outcomes.mCounts[i]
+                        + " predicted=" + outcomes.mPredicted[i]);
+            }
+        }
+        pw.println("      cost:");
+        for (int i = 0; i < costs.length; i++) {
+            costs[i].dump(pw, "        ", COST_NAMES[i]);
+        }
+        pw.println("      gestures:");
+        pw.print(outcomes.mList);
+        if (outcomes.mTotal > MAX_LISTED) {
+            pw.println("      ... " + (outcomes.mTotal - MAX_LISTED) + " more");
+        }
+    }
+
+    private static void check(boolean valid, String what) throws BadFileException {
+        if (!valid) {
+            throw new BadFileException(what);
+        }
+    }
+
+    private static int costIndex(int action) {
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                return COST_DOWN;
+            case MotionEvent.ACTION_MOVE:
+                return COST_MOVE;
+            case MotionEvent.ACTION_UP:
+                return COST_UP;
+            default:
+                return COST_OTHER;
+        }
+    }
+}
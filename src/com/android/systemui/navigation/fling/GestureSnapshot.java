@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * What FlingGestureDetector remembers of an event after it's gone: the
+ * primary pointer position, time and id. Detectors keep one per event
+ * they hold on to and overwrite it, so nothing gets cloned or recycled
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.view.MotionEvent;
+
+public final class GestureSnapshot {
+    private static final long NANOS_PER_MS = 1000000L;
+
+    private float mX;
+    private float mY;
+    private long mTimeNanos;
+    private int mPointerId;
+    private boolean mIsSet;
+
+    /**
+     * Take the pointer at index 0 of ev
+     */
+    public void set(MotionEvent ev) {
+        mX = ev.getX();
+        mY = ev.getY();
+        mTimeNanos = ev.getEventTimeNano();
+        mPointerId = ev.getPointerId(0);
+        mIsSet = true;
+    }
+
+    public void clear() {
+        mIsSet = false;
+    }
+
+    /**
+     * @return false until set() the first time, or after clear()
+     */
+    public boolean isSet() {
+        return mIsSet;
+    }
+
+    public float getX() {
+        return mX;
+    }
+
+    public float getY() {
+        return mY;
+    }
+
+    /**
+     * @return event time in uptimeMillis, like MotionEvent.getEventTime()
+     */
+    public long getEventTime() {
+        return mTimeNanos / NANOS_PER_MS;
+    }
+
+    public long getEventTimeNano() {
+        return mTimeNanos;
+    }
+
+    public int getPointerId() {
+        return mPointerId;
+    }
+}
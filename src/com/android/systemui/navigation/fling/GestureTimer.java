@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Every Fling gesture timeout on one looper callback. Each timeout type
+ * owns a fixed slot holding its deadline, so arming and disarming are
+ * field writes. The looper only hears about a deadline when it is earlier
+ * than any wake up already posted; a wake up that finds its deadline
+ * disarmed just goes back to sleep. A virtual timer has no looper and only
+ * moves when told to, for replaying recorded gestures. Not thread safe,
+ * use from the looper thread only
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+public final class GestureTimer {
+    public interface OnTimeoutListener {
+        public void onTimeout(int slot);
+    }
+
+    // FlingGestureDetector
+    public static final int SHOW_PRESS = 0;
+    public static final int LONG_PRESS = 1;
+    public static final int TAP = 2;
+    // FlingGestureHandler
+    public static final int DOUBLE_TAP_LEFT = 3;
+    public static final int DOUBLE_TAP_RIGHT = 4;
+    public static final int SLOT_COUNT = 5;
+
+    // deadline in uptimeMillis, 0 when disarmed
+    private final long[] mDeadlines = new long[SLOT_COUNT];
+    private final OnTimeoutListener[] mListeners = new OnTimeoutListener[SLOT_COUNT];
+
+    // null on a virtual clock
+    private final Handler mHandler;
+    private long mVirtualNow;
+    // wake ups in the looper queue. A new one is only posted when it is
+    // earlier than all of them, so this is a stack with the next one to
+    // run on top
+    private final long[] mPosted = new long[SLOT_COUNT * 2];
+    private int mPostedCount;
+
+    private final Runnable mWakeUp = new Runnable() {
+        @Override
+        public void run() {
+            if (mPostedCount > 0) {
+                mPostedCount--;
+            }
+            dispatchExpired(now());
+            schedule();
+        }
+    };
+
+    public GestureTimer(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * @return a timer on a clock that stands still between advanceTo() calls
+     */
+    public static GestureTimer createVirtual() {
+        return new GestureTimer(null);
+    }
+
+    /**
+     * Move a virtual clock forward, running everything that expires on the
+     * way. Each listener runs with the clock at its own deadline
+     */
+    public void advanceTo(long uptimeMillis) {
+        dispatchExpired(uptimeMillis);
+        mVirtualNow = Math.max(mVirtualNow, uptimeMillis);
+    }
+
+    /**
+     * @return current time on this timer's clock, in uptimeMillis
+     */
+    public long now() {
+        return mHandler != null ? SystemClock.uptimeMillis() : mVirtualNow;
+    }
+
+    public void setListener(int slot, OnTimeoutListener listener) {
+        mListeners[slot] = listener;
+    }
+
+    /**
+     * Run the slot listener at uptimeMillis, replacing any deadline the
+     * slot already had
+     */
+    public void arm(int slot, long uptimeMillis) {
+        mDeadlines[slot] = Math.max(1, uptimeMillis);
+        schedule();
+    }
+
+    public void armDelayed(int slot, long delayMillis) {
+        arm(slot, now() + delayMillis);
+    }
+
+    public void disarm(int slot) {
+        mDeadlines[slot] = 0;
+    }
+
+    public boolean isArmed(int slot) {
+        return mDeadlines[slot] != 0;
+    }
+
+    private void dispatchExpired(long now) {
+        while (true) {
+            // earliest first, listeners may arm or disarm others as we go
+            int slot = -1;
+            long earliest = Long.MAX_VALUE;
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                final long deadline = mDeadlines[i];
+                if (deadline != 0 && deadline <= now && deadline < earliest) {
+                    earliest = deadline;
+                    slot = i;
+                }
+            }
+            if (slot == -1) {
+                return;
+            }
+            mDeadlines[slot] = 0;
+            if (mHandler == null) {
+                mVirtualNow = Math.max(mVirtualNow, earliest);
+            }
+            final OnTimeoutListener listener = mListeners[slot];
+            if (listener != null) {
+                listener.onTimeout(slot);
+            }
+        }
+    }
+
+    private void schedule() {
+        if (mHandler == null) {
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            final long deadline = mDeadlines[i];
+            if (deadline != 0 && deadline < next) {
+                next = deadline;
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            return;
+        }
+        if (mPostedCount > 0 && mPosted[mPostedCount - 1] <= next) {
+            // already waking up in time
+            return;
+        }
+        if (mPostedCount == mPosted.length) {
+            // deadlines kept moving earlier, start over
+            mHandler.removeCallbacks(mWakeUp);
+            mPostedCount = 0;
+        }
+        mPosted[mPostedCount++] = next;
+        mHandler.postAtTime(mWakeUp, next);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Ring of touch samples shared by everything in Fling that consumes touch.
+ * Each MotionEvent is unpacked once, batched history included, into
+ * primitive arrays. Ripple, trails and the gesture detector then read
+ * samples from here instead of walking the event themselves. Samples are
+ * addressed by an ever increasing sequence number, so a consumer can tell
+ * what arrived with the latest event. Nothing is allocated after construction
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.view.MotionEvent;
+
+public class MotionSampleBuffer {
+    // power of two so sequence numbers map to slots with a mask
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+
+    private final float[] mX = new float[CAPACITY];
+    private final float[] mY = new float[CAPACITY];
+    private final long[] mTime = new long[CAPACITY];
+    private final int[] mPointer = new int[CAPACITY];
+
+    // sequence number of the next sample to be written
+    private int mWritten;
+    // first sample of the latest event
+    private int mEventStart;
+    // latest sample of the pointer at index 0 of the latest event
+    private int mPrimary = -1;
+    private int mPrimaryPointer;
+    private int mActionMasked = MotionEvent.ACTION_CANCEL;
+    private int mActionIndex;
+    private long mDownTime;
+    private float mFocusX;
+    private float mFocusY;
+
+    /**
+     * Unpack an event, historical samples first, oldest to newest.
+     * A down event starts a new gesture and forgets older samples
+     */
+    public void add(MotionEvent ev) {
+        mActionMasked = ev.getActionMasked();
+        mActionIndex = ev.getActionIndex();
+        mDownTime = ev.getDownTime();
+        if (mActionMasked == MotionEvent.ACTION_DOWN) {
+            mWritten = 0;
+        }
+        mEventStart = mWritten;
+
+        final int pointers = ev.getPointerCount();
+        final int history = ev.getHistorySize();
+        for (int h = 0; h < history; h++) {
+            final long time = ev.getHistoricalEventTimeNano(h);
+            for (int p = 0; p < pointers; p++) {
+                write(ev.getHistoricalX(p, h), ev.getHistoricalY(p, h), time,
+                        ev.getPointerId(p));
+            }
+        }
+
+        // current samples, and focal point of the pointers still down
+        final boolean pointerUp = mActionMasked == MotionEvent.ACTION_POINTER_UP;
+        final long time = ev.getEventTimeNano();
+        float sumX = 0, sumY = 0;
+        mPrimaryPointer = ev.getPointerId(0);
+        for (int p = 0; p < pointers; p++) {
+            final float x = ev.getX(p);
+            final float y = ev.getY(p);
+            if (p == 0) {
+                mPrimary = mWritten;
+            }
+            write(x, y, time, ev.getPointerId(p));
+            if (pointerUp && p == mActionIndex) {
+                continue;
+            }
+            sumX += x;
+            sumY += y;
+        }
+        final int div = pointerUp ? pointers - 1 : pointers;
+        mFocusX = sumX / div;
+        mFocusY = sumY / div;
+    }
+
+    private void write(float x, float y, long time, int pointer) {
+        final int slot = mWritten & MASK;
+        mX[slot] = x;
+        mY[slot] = y;
+        mTime[slot] = time;
+        mPointer[slot] = pointer;
+        mWritten++;
+    }
+
+    public int getActionMasked() {
+        return mActionMasked;
+    }
+
+    public int getActionIndex() {
+        return mActionIndex;
+    }
+
+    public long getDownTime() {
+        return mDownTime;
+    }
+
+    /**
+     * @return focal point of the pointers down after the latest event
+     */
+    public float getFocusX() {
+        return mFocusX;
+    }
+
+    public float getFocusY() {
+        return mFocusY;
+    }
+
+    /**
+     * @return sequence number of the oldest sample of the latest event
+     *         still held, clamped to what the ring retains
+     */
+    public int getEventStart() {
+        return Math.max(mEventStart, getOldest());
+    }
+
+    /**
+     * @return sequence number one past the newest sample
+     */
+    public int getEnd() {
+        return mWritten;
+    }
+
+    /**
+     * @return sequence number of the oldest sample still held
+     */
+    public int getOldest() {
+        return Math.max(0, mWritten - CAPACITY);
+    }
+
+    /**
+     * @return sequence number of the newest sample of the primary pointer
+     */
+    public int getPrimary() {
+        return mPrimary;
+    }
+
+    /**
+     * @return id of the pointer at index 0 of the latest event
+     */
+    public int getPrimaryPointer() {
+        return mPrimaryPointer;
+    }
+
+    public float getX(int seq) {
+        return mX[seq & MASK];
+    }
+
+    public float getY(int seq) {
+        return mY[seq & MASK];
+    }
+
+    /**
+     * @return CLOCK_MONOTONIC nanoseconds, same clock as event times
+     */
+    public long getTime(int seq) {
+        return mTime[seq & MASK];
+    }
+
+    public int getPointer(int seq) {
+        return mPointer[seq & MASK];
+    }
+}
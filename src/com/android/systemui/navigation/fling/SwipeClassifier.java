@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Fling swipe classification. Everything it needs from bar size, device
+ * orientation, left in landscape and long swipe settings goes into a small
+ * table when one of them changes, so a swipe classifies with a few lookups
+ * instead of branching on all of that every fling. No framework classes,
+ * see SwipeClassifierCheck
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public final class SwipeClassifier {
+    // index into the tables below for swipes towards larger or smaller coordinates
+    private static final int TOWARDS_END = 0;
+    private static final int TOWARDS_START = 1;
+    // minimum amount of bar short side to swipe to validate a vertical swipe
+    static final float VERTICAL_SWIPE_THRESHOLD = 0.80f;
+    // tangent of the maximum vertical swipe angle, 30 degrees, before falling
+    // over into non-vertical swipes
+    private static final float VERTICAL_SWIPE_SLOPE = (float) Math.tan(Math.toRadians(30.0d));
+    // fraction of the long swipe distance a swipe in progress must be clear
+    // of it for a fully confident prediction
+    static final float PREDICTION_MARGIN = 0.25f;
+
+    // long swipe thresholds as a fraction of the bar long side
+    //
+    // left and right thresholds for tablets when device orientation is landscape
+    private float mLeftLand;
+    private float mRightLand;
+    // left and right thresholds for all devices when device orientation is portrait
+    private float mLeftPort;
+    private float mRightPort;
+    // up and down thresholds for phones when device orientation is landscape and navbar is vertical
+    private float mUpVert;
+    private float mDownVert;
+
+    // the table
+    private int mWidth;
+    private int mHeight;
+    private boolean mIsLandscape;
+    private boolean mLeftInLandscape;
+    private boolean mHorizontal;
+    private float mHalfLength;
+    private float mVerticalSwipeDistance;
+    // sign of motion across the bar that counts as up
+    private int mUpSign;
+    private final int[] mShortSwipeSlot = new int[2];
+    private final int[] mLongSwipeSlot = new int[2];
+    private final float[] mLongSwipeDistance = new float[2];
+
+    // result of the last classify()
+    //
+    // slot if the swipe ended now
+    private int mSlot;
+    // slot the swipe is heading for, differs from mSlot while a vertical
+    // swipe hasn't gone far enough yet
+    private int mPredictedSlot;
+    private float mConfidence;
+
+    public void setLongSwipeThresholds(float leftLand, float rightLand, float leftPort,
+            float rightPort, float upVert, float downVert) {
+        mLeftLand = leftLand;
+        mRightLand = rightLand;
+        mLeftPort = leftPort;
+        mRightPort = rightPort;
+        mUpVert = upVert;
+        mDownVert = downVert;
+        updateTable();
+    }
+
+    /**
+     * @param leftInLandscape - vertical bar sits on the left instead of the right
+     */
+    public void setBar(int width, int height, boolean isLandscape, boolean leftInLandscape) {
+        mWidth = width;
+        mHeight = height;
+        mIsLandscape = isLandscape;
+        mLeftInLandscape = leftInLandscape;
+        updateTable();
+    }
+
+    private void updateTable() {
+        mHorizontal = mWidth > mHeight;
+        final float longSide = mHorizontal ? mWidth : mHeight;
+        final float shortSide = mHorizontal ? mHeight : mWidth;
+        mHalfLength = longSide / 2;
+        mVerticalSwipeDistance = shortSide * VERTICAL_SWIPE_THRESHOLD;
+        // up is away from the screen edge the bar sits on
+        mUpSign = !mHorizontal && mLeftInLandscape ? 1 : -1;
+
+        if (mIsLandscape && !mHorizontal) {
+            // vertical bar on phones, swiping down the bar goes left
+            setSwipeSlots(TOWARDS_END, false, mDownVert * longSide);
+            setSwipeSlots(TOWARDS_START, true, mUpVert * longSide);
+        } else if (mIsLandscape) {
+            // horizontal bar on tablets
+            setSwipeSlots(TOWARDS_END, true, mRightLand * longSide);
+            setSwipeSlots(TOWARDS_START, false, mLeftLand * longSide);
+        } else {
+            setSwipeSlots(TOWARDS_END, true, mRightPort * longSide);
+            setSwipeSlots(TOWARDS_START, false, mLeftPort * longSide);
+        }
+    }
+
+    private void setSwipeSlots(int towards, boolean right, float longSwipeDistance) {
+        mShortSwipeSlot[towards] = right ? FlingGestures.SHORT_RIGHT_SWIPE
+                : FlingGestures.SHORT_LEFT_SWIPE;
+        mLongSwipeSlot[towards] = right ? FlingGestures.LONG_RIGHT_SWIPE
+                : FlingGestures.LONG_LEFT_SWIPE;
+        mLongSwipeDistance[towards] = longSwipeDistance;
+    }
+
+    /*
+     * Used for tap and up/down swipe events
+     * NOTE: when bar is vertical, "right" side
+     * refers to top half of bar and "left" refers
+     * to the bottom half
+     */
+    public boolean isRightSide(float x, float y) {
+        return mHorizontal ? x > mHalfLength : y < mHalfLength;
+    }
+
+    public void classify(float xStart, float yStart, float xEnd, float yEnd) {
+        final float xDist = xEnd - xStart;
+        final float yDist = yEnd - yStart;
+        // distance along the bar long side and across it
+        final float along = mHorizontal ? xDist : yDist;
+        final float across = mHorizontal ? yDist : xDist;
+        final float alongAbs = Math.abs(along);
+        final float acrossAbs = Math.abs(across);
+
+        // vertical swipes go up and no more than 30 degrees off
+        final boolean upward = (along != 0 || across != 0)
+                && across * mUpSign >= 0
+                && alongAbs <= acrossAbs * VERTICAL_SWIPE_SLOPE;
+        if (upward) {
+            mPredictedSlot = isRightSide(xStart, yStart) ? FlingGestures.UP_RIGHT_SWIPE
+                    : FlingGestures.UP_LEFT_SWIPE;
+            if (acrossAbs >= mVerticalSwipeDistance) {
+                mSlot = mPredictedSlot;
+                mConfidence = 1f;
+                return;
+            }
+            mConfidence = acrossAbs / mVerticalSwipeDistance;
+        }
+
+        // normal side to side flinging action
+        final int towards = along >= 0 ? TOWARDS_END : TOWARDS_START;
+        final float longSwipeDistance = mLongSwipeDistance[towards];
+        final float clearance = alongAbs - longSwipeDistance;
+        mSlot = clearance > 0 ? mLongSwipeSlot[towards] : mShortSwipeSlot[towards];
+        if (!upward) {
+            mPredictedSlot = mSlot;
+            mConfidence = Math.min(1f, Math.abs(clearance)
+                    / (longSwipeDistance * PREDICTION_MARGIN));
+        }
+    }
+
+    /**
+     * @return slot the last classified swipe fires if it ends now
+     */
+    public int getSlot() {
+        return mSlot;
+    }
+
+    /**
+     * @return slot the last classified swipe is most likely to end in
+     */
+    public int getPredictedSlot() {
+        return mPredictedSlot;
+    }
+
+    /**
+     * How likely the swipe in progress ends in getPredictedSlot():
+     * distance covered towards a vertical swipe, or distance from the
+     * long swipe threshold on either side of it
+     */
+    public float getConfidence() {
+        return mConfidence;
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Self check of SwipeClassifier. First a table of hand picked swipes with
+ * the slot each must fire, across every bar orientation, device
+ * orientation and left in landscape case. Then random swipes on the same
+ * bars checked against the branching classifier Fling used before the
+ * table, fired slot, predicted slot and confidence. Runs when DUMP_ARG is
+ * passed to the navigation bar dump
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import java.io.PrintWriter;
+import java.util.Random;
+
+public final class SwipeClassifierCheck {
+    public static final String DUMP_ARG = "--fling-swipe-check";
+
+    private static final int RANDOM_SWIPES = 200000;
+    private static final float CONFIDENCE_TOLERANCE = 1e-4f;
+    private static final int MAX_REPORTED = 10;
+
+    // bars as {width, height, isLandscape, leftInLandscape}
+    private static final int PHONE_PORT = 0;
+    private static final int PHONE_LAND = 1;
+    private static final int PHONE_LAND_LEFT = 2;
+    private static final int TABLET_PORT = 3;
+    private static final int TABLET_LAND = 4;
+    private static final int[][] BARS = {
+            { 1080, 126, 0, 0 },
+            { 126, 1080, 1, 0 },
+            { 126, 1080, 1, 1 },
+            { 1600, 96, 0, 0 },
+            { 2560, 96, 1, 0 },
+    };
+    private static final String[] BAR_NAMES = {
+            "phone portrait", "phone landscape", "phone landscape left",
+            "tablet portrait", "tablet landscape"
+    };
+
+    // left land, right land, left port, right port, up vert, down vert
+    private static final float[] THRESHOLDS = {
+            0.25f, 0.30f, 0.40f, 0.35f, 0.45f, 0.40f
+    };
+
+    // {bar, x start, y start, x end, y end, fired slot}
+    private static final int[][] CASES = {
+            // horizontal bar, right is +x, up is -y
+            { PHONE_PORT, 500, 60, 600, 60, FlingGestures.SHORT_RIGHT_SWIPE },
+            { PHONE_PORT, 100, 60, 700, 60, FlingGestures.LONG_RIGHT_SWIPE },
+            { PHONE_PORT, 600, 60, 500, 60, FlingGestures.SHORT_LEFT_SWIPE },
+            { PHONE_PORT, 900, 60, 300, 60, FlingGestures.LONG_LEFT_SWIPE },
+            { PHONE_PORT, 800, 120, 810, 0, FlingGestures.UP_RIGHT_SWIPE },
+            { PHONE_PORT, 200, 120, 190, 0, FlingGestures.UP_LEFT_SWIPE },
+            // up but too short, fires along the bar
+            { PHONE_PORT, 800, 120, 810, 60, FlingGestures.SHORT_RIGHT_SWIPE },
+            // up but more than 30 degrees off
+            { PHONE_PORT, 800, 120, 900, 0, FlingGestures.SHORT_RIGHT_SWIPE },
+            // down is never vertical
+            { PHONE_PORT, 800, 0, 810, 120, FlingGestures.SHORT_RIGHT_SWIPE },
+            // long threshold differs per direction
+            { PHONE_PORT, 100, 60, 500, 60, FlingGestures.LONG_RIGHT_SWIPE },
+            { PHONE_PORT, 500, 60, 100, 60, FlingGestures.SHORT_LEFT_SWIPE },
+            // no motion at all
+            { PHONE_PORT, 500, 60, 500, 60, FlingGestures.SHORT_RIGHT_SWIPE },
+
+            // vertical bar on the right, down the bar goes left, up is -x
+            { PHONE_LAND, 60, 400, 60, 500, FlingGestures.SHORT_LEFT_SWIPE },
+            { PHONE_LAND, 60, 100, 60, 700, FlingGestures.LONG_LEFT_SWIPE },
+            { PHONE_LAND, 60, 500, 60, 400, FlingGestures.SHORT_RIGHT_SWIPE },
+            { PHONE_LAND, 60, 900, 60, 300, FlingGestures.LONG_RIGHT_SWIPE },
+            // top half is right
+            { PHONE_LAND, 120, 200, 0, 210, FlingGestures.UP_RIGHT_SWIPE },
+            { PHONE_LAND, 120, 900, 0, 890, FlingGestures.UP_LEFT_SWIPE },
+            // towards the screen edge is down
+            { PHONE_LAND, 0, 200, 120, 210, FlingGestures.SHORT_LEFT_SWIPE },
+
+            // vertical bar on the left, up is +x
+            { PHONE_LAND_LEFT, 0, 200, 120, 210, FlingGestures.UP_RIGHT_SWIPE },
+            { PHONE_LAND_LEFT, 0, 900, 120, 890, FlingGestures.UP_LEFT_SWIPE },
+            { PHONE_LAND_LEFT, 120, 200, 0, 210, FlingGestures.SHORT_LEFT_SWIPE },
+            { PHONE_LAND_LEFT, 60, 100, 60, 700, FlingGestures.LONG_LEFT_SWIPE },
+            { PHONE_LAND_LEFT, 60, 900, 60, 300, FlingGestures.LONG_RIGHT_SWIPE },
+
+            // tablets use the portrait or landscape thresholds by device orientation
+            { TABLET_PORT, 100, 48, 700, 48, FlingGestures.LONG_RIGHT_SWIPE },
+            { TABLET_PORT, 100, 48, 600, 48, FlingGestures.SHORT_RIGHT_SWIPE },
+            { TABLET_PORT, 1500, 48, 800, 48, FlingGestures.LONG_LEFT_SWIPE },
+            { TABLET_PORT, 1200, 90, 1210, 0, FlingGestures.UP_RIGHT_SWIPE },
+            { TABLET_LAND, 100, 48, 900, 48, FlingGestures.LONG_RIGHT_SWIPE },
+            { TABLET_LAND, 100, 48, 800, 48, FlingGestures.SHORT_RIGHT_SWIPE },
+            { TABLET_LAND, 2400, 48, 1700, 48, FlingGestures.LONG_LEFT_SWIPE },
+            { TABLET_LAND, 2400, 48, 1800, 48, FlingGestures.SHORT_LEFT_SWIPE },
+            { TABLET_LAND, 400, 90, 390, 0, FlingGestures.UP_LEFT_SWIPE },
+    };
+
+    private SwipeClassifierCheck() {}
+
+    public static void run(PrintWriter pw) {
+        pw.println("    SwipeClassifierCheck {");
+        final int caseFailures = checkCases(pw);
+        pw.println("      cases: " + CASES.length + " failed=" + caseFailures);
+        final int randomFailures = checkRandom(pw, new Random(0), RANDOM_SWIPES);
+        pw.println("      random: " + (RANDOM_SWIPES * BARS.length) + " failed=" + randomFailures);
+        pw.println("    }");
+    }
+
+    /**
+     * @return number of table cases that fired the wrong slot
+     */
+    static int checkCases(PrintWriter pw) {
+        final SwipeClassifier classifier = new SwipeClassifier();
+        setThresholds(classifier);
+        int failures = 0;
+        for (int[] c : CASES) {
+            setBar(classifier, c[0]);
+            classifier.classify(c[1], c[2], c[3], c[4]);
+            if (classifier.getSlot() != c[5]) {
+                if (failures++ < MAX_REPORTED) {
+                    pw.println("      " + BAR_NAMES[c[0]] + " (" + c[1] + "," + c[2] + ")->("
+                            + c[3] + "," + c[4] + "): " + FlingGestures.toString(
+                            classifier.getSlot()) + " != " + FlingGestures.toString(c[5]));
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return number of random swipes where the classifier and the legacy
+     *         branching disagree
+     */
+    static int checkRandom(PrintWriter pw, Random random, int swipesPerBar) {
+        final SwipeClassifier classifier = new SwipeClassifier();
+        setThresholds(classifier);
+        final LegacySwipe legacy = new LegacySwipe();
+        int failures = 0;
+        for (int bar = 0; bar < BARS.length; bar++) {
+            setBar(classifier, bar);
+            final int width = BARS[bar][0];
+            final int height = BARS[bar][1];
+            for (int i = 0; i < swipesPerBar; i++) {
+                // every other swipe on whole pixels, those land on thresholds
+                final boolean whole = (i & 1) == 0;
+                final float x1 = coordinate(random, width, whole);
+                final float y1 = coordinate(random, height, whole);
+                final float x2 = coordinate(random, width, whole);
+                final float y2 = coordinate(random, height, whole);
+                classifier.classify(x1, y1, x2, y2);
+                legacy.process(BARS[bar], x1, y1, x2, y2);
+                if (classifier.getSlot() != legacy.getFiredSlot()
+                        || classifier.getPredictedSlot() != legacy.getPredictedSlot()
+                        || Math.abs(classifier.getConfidence() - legacy.getConfidence())
+                                > CONFIDENCE_TOLERANCE) {
+                    if (failures++ < MAX_REPORTED) {
+                        pw.println("      " + BAR_NAMES[bar] + " (" + x1 + "," + y1 + ")->("
+                                + x2 + "," + y2 + "): "
+                                + FlingGestures.toString(classifier.getSlot()) + "/"
+                                + FlingGestures.toString(classifier.getPredictedSlot()) + "/"
+                                + classifier.getConfidence() + " != "
+                                + FlingGestures.toString(legacy.getFiredSlot()) + "/"
+                                + FlingGestures.toString(legacy.getPredictedSlot()) + "/"
+                                + legacy.getConfidence());
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static float coordinate(Random random, int size, boolean whole) {
+        return whole ? random.nextInt(size + 1) : random.nextFloat() * size;
+    }
+
+    private static void setThresholds(SwipeClassifier classifier) {
+        classifier.setLongSwipeThresholds(THRESHOLDS[0], THRESHOLDS[1], THRESHOLDS[2],
+                THRESHOLDS[3], THRESHOLDS[4], THRESHOLDS[5]);
+    }
+
+    private static void setBar(SwipeClassifier classifier, int bar) {
+        classifier.setBar(BARS[bar][0], BARS[bar][1], BARS[bar][2] != 0, BARS[bar][3] != 0);
+    }
+
+    /*
+     * FlingGestureHandler.FlingSwipe as it was before the table, bar state
+     * passed in instead of read from the host
+     */
+    private static final class LegacySwipe {
+        private static final double VERTICAL_SWIPE_DEGREES = 30.0d;
+
+        private boolean mIsUp;
+        private boolean mIsLeft;
+        private boolean mUpwardMotion;
+        private boolean mVerticalSwipeOnRight;
+        private float horizontalSwipePercent;
+        private float verticalSwipePercent;
+        private float longSwipeThreshold;
+
+        void process(int[] bar, float xStart, float yStart, float xEnd, float yEnd) {
+            final int width = bar[0];
+            final int height = bar[1];
+            final boolean isLandscape = bar[2] != 0;
+            final boolean leftInLandscape = bar[3] != 0;
+            final boolean isNavbarHorizontal = width > height;
+            final float xDist = xEnd - xStart;
+            final float yDist = yEnd - yStart;
+
+            horizontalSwipePercent = isNavbarHorizontal ? xDist / width : yDist / height;
+            verticalSwipePercent = isNavbarHorizontal ? yDist / height : xDist / width;
+            mVerticalSwipeOnRight = isRightSide(isNavbarHorizontal, width, height, xStart,
+                    yStart);
+            mUpwardMotion = isUpwardMotion(isNavbarHorizontal, leftInLandscape, xDist, yDist);
+
+            mIsUp = Math.abs(verticalSwipePercent) >= SwipeClassifier.VERTICAL_SWIPE_THRESHOLD
+                    && mUpwardMotion;
+            if (mIsUp) {
+                return;
+            }
+            if (isLandscape) {
+                if (isNavbarHorizontal) {
+                    mIsLeft = horizontalSwipePercent < 0;
+                    longSwipeThreshold = mIsLeft ? THRESHOLDS[0] : THRESHOLDS[1];
+                } else {
+                    mIsLeft = horizontalSwipePercent >= 0;
+                    longSwipeThreshold = mIsLeft ? THRESHOLDS[5] : THRESHOLDS[4];
+                }
+            } else {
+                mIsLeft = horizontalSwipePercent < 0;
+                longSwipeThreshold = mIsLeft ? THRESHOLDS[2] : THRESHOLDS[3];
+            }
+        }
+
+        private static boolean isRightSide(boolean isHorizontal, int width, int height,
+                float x, float y) {
+            final boolean isVertical = !isHorizontal;
+            float length = isVertical ? height : width;
+            float pos = isVertical ? y : x;
+            length /= 2;
+            return isVertical ? pos < length : pos > length;
+        }
+
+        private boolean isUpwardMotion(boolean isHorizontal, boolean leftInLandscape,
+                float xDistance, float yDistance) {
+            if (xDistance == 0 && yDistance == 0) {
+                return false;
+            }
+            double degrees = Math.abs(Math.toDegrees(Math.atan(((isHorizontal ? xDistance
+                    : yDistance) / (isHorizontal ? yDistance : xDistance)))));
+            if (degrees > VERTICAL_SWIPE_DEGREES) {
+                return false;
+            }
+            return (isHorizontal && verticalSwipePercent <= 0)
+                    || (!isHorizontal && leftInLandscape && verticalSwipePercent >= 0)
+                    || (!isHorizontal && !leftInLandscape && verticalSwipePercent <= 0);
+        }
+
+        private boolean isLongSwipe() {
+            return Math.abs(horizontalSwipePercent) > longSwipeThreshold;
+        }
+
+        int getFiredSlot() {
+            if (mIsUp) {
+                return mVerticalSwipeOnRight ? FlingGestures.UP_RIGHT_SWIPE
+                        : FlingGestures.UP_LEFT_SWIPE;
+            } else if (mIsLeft) {
+                return isLongSwipe() ? FlingGestures.LONG_LEFT_SWIPE
+                        : FlingGestures.SHORT_LEFT_SWIPE;
+            } else {
+                return isLongSwipe() ? FlingGestures.LONG_RIGHT_SWIPE
+                        : FlingGestures.SHORT_RIGHT_SWIPE;
+            }
+        }
+
+        int getPredictedSlot() {
+            if (mIsUp || mUpwardMotion) {
+                return mVerticalSwipeOnRight ? FlingGestures.UP_RIGHT_SWIPE
+                        : FlingGestures.UP_LEFT_SWIPE;
+            }
+            return getFiredSlot();
+        }
+
+        float getConfidence() {
+            if (mIsUp) {
+                return 1f;
+            }
+            if (mUpwardMotion) {
+                return Math.abs(verticalSwipePercent) / SwipeClassifier.VERTICAL_SWIPE_THRESHOLD;
+            }
+            final float clearance = Math.abs(Math.abs(horizontalSwipePercent)
+                    - longSwipeThreshold);
+            return Math.min(1f, clearance / (longSwipeThreshold
+                    * SwipeClassifier.PREDICTION_MARGIN));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Pointer velocity from a fixed window of recent samples per pointer id,
+ * in place of VelocityTracker. Nothing is allocated after construction and
+ * one instance lasts for every gesture. Velocity can be computed at any
+ * time, not just when the finger lifts. Least squares fits a quadratic to
+ * the window like the framework default; impulse treats the samples as
+ * pushes on an object and takes the velocity its energy implies, which
+ * follows a finger that speeds up or brakes at the end more closely.
+ * Plain java so it runs off device too
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public final class VelocityEstimator {
+    public static final int STRATEGY_LSQ2 = 0;
+    public static final int STRATEGY_IMPULSE = 1;
+
+    // MotionEvent pointer ids run 0 - 31
+    public static final int MAX_POINTERS = 32;
+    // samples kept per pointer
+    private static final int HISTORY = 20;
+    // samples older than this, relative to the newest, are ignored
+    private static final long HORIZON_NANOS = 100 * 1000000L;
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final int mStrategy;
+
+    // per pointer rings of HISTORY samples, pointer p at [p * HISTORY]
+    private final float[] mX = new float[MAX_POINTERS * HISTORY];
+    private final float[] mY = new float[MAX_POINTERS * HISTORY];
+    private final long[] mTime = new long[MAX_POINTERS * HISTORY];
+    // index of the newest sample within the ring, and samples held
+    private final int[] mNewest = new int[MAX_POINTERS];
+    private final int[] mCount = new int[MAX_POINTERS];
+
+    private final float[] mVelocityX = new float[MAX_POINTERS];
+    private final float[] mVelocityY = new float[MAX_POINTERS];
+
+    // samples of one pointer inside the horizon, oldest first, times in
+    // milliseconds relative to the newest
+    private final double[] mWindowT = new double[HISTORY];
+    private final double[] mWindowX = new double[HISTORY];
+    private final double[] mWindowY = new double[HISTORY];
+
+    public VelocityEstimator(int strategy) {
+        mStrategy = strategy;
+    }
+
+    /**
+     * Forget every pointer, for a new gesture
+     */
+    public void clear() {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            clearPointer(i);
+        }
+    }
+
+    /**
+     * Start a new trace for pointer, for when it goes down again
+     */
+    public void clearPointer(int pointer) {
+        if (pointer < 0 || pointer >= MAX_POINTERS) {
+            return;
+        }
+        mCount[pointer] = 0;
+        mVelocityX[pointer] = 0;
+        mVelocityY[pointer] = 0;
+    }
+
+    /**
+     * @param timeNanos - sample time, must not go backwards for a pointer
+     */
+    public void addSample(int pointer, float x, float y, long timeNanos) {
+        if (pointer < 0 || pointer >= MAX_POINTERS) {
+            return;
+        }
+        final int newest = mCount[pointer] == 0 ? 0 : (mNewest[pointer] + 1) % HISTORY;
+        final int index = pointer * HISTORY + newest;
+        mX[index] = x;
+        mY[index] = y;
+        mTime[index] = timeNanos;
+        mNewest[pointer] = newest;
+        if (mCount[pointer] < HISTORY) {
+            mCount[pointer]++;
+        }
+    }
+
+    /**
+     * Compute velocity of every pointer holding samples
+     *
+     * @param units - 1 for pixels per millisecond, 1000 for pixels per second
+     * @param maxVelocity - magnitude results are clamped to, in units
+     */
+    public void computeVelocity(int units, float maxVelocity) {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (mCount[i] != 0) {
+                computeVelocity(i, units, maxVelocity);
+            }
+        }
+    }
+
+    /**
+     * Compute velocity of a single pointer, cheap enough to run mid gesture
+     */
+    public void computeVelocity(int pointer, int units, float maxVelocity) {
+        if (pointer < 0 || pointer >= MAX_POINTERS) {
+            return;
+        }
+        final int n = fillWindow(pointer);
+        final double vx, vy;
+        if (mStrategy == STRATEGY_IMPULSE) {
+            vx = impulse(mWindowT, mWindowX, n);
+            vy = impulse(mWindowT, mWindowY, n);
+        } else {
+            vx = leastSquares(mWindowT, mWindowX, n);
+            vy = leastSquares(mWindowT, mWindowY, n);
+        }
+        mVelocityX[pointer] = clamp((float) (vx * units), maxVelocity);
+        mVelocityY[pointer] = clamp((float) (vy * units), maxVelocity);
+    }
+
+    /**
+     * @return velocity from the last computeVelocity(), 0 for unknown pointers
+     */
+    public float getXVelocity(int pointer) {
+        return pointer < 0 || pointer >= MAX_POINTERS ? 0 : mVelocityX[pointer];
+    }
+
+    public float getYVelocity(int pointer) {
+        return pointer < 0 || pointer >= MAX_POINTERS ? 0 : mVelocityY[pointer];
+    }
+
+    private int fillWindow(int pointer) {
+        final int count = mCount[pointer];
+        if (count == 0) {
+            return 0;
+        }
+        final int base = pointer * HISTORY;
+        final long newestTime = mTime[base + mNewest[pointer]];
+        // walk back from the newest until the horizon, then lay out oldest first
+        int n = 0;
+        int ring = mNewest[pointer];
+        while (n < count && newestTime - mTime[base + ring] <= HORIZON_NANOS) {
+            n++;
+            ring = ring == 0 ? HISTORY - 1 : ring - 1;
+        }
+        for (int i = 0; i < n; i++) {
+            ring = ring == HISTORY - 1 ? 0 : ring + 1;
+            mWindowT[i] = (mTime[base + ring] - newestTime) / NANOS_PER_MS;
+            mWindowX[i] = mX[base + ring];
+            mWindowY[i] = mY[base + ring];
+        }
+        return n;
+    }
+
+    /**
+     * Slope at the newest sample (t = 0) of the quadratic fitted through
+     * the window, dropping to a straight line when a quadratic is
+     * underdetermined. Samples are oldest first
+     */
+    static double leastSquares(double[] t, double[] v, int n) {
+        if (n < 2) {
+            return 0;
+        }
+        double s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        double sv = 0, svt = 0, svt2 = 0;
+        for (int i = 0; i < n; i++) {
+            final double ti = t[i];
+            final double ti2 = ti * ti;
+            s1 += ti;
+            s2 += ti2;
+            s3 += ti2 * ti;
+            s4 += ti2 * ti2;
+            sv += v[i];
+            svt += v[i] * ti;
+            svt2 += v[i] * ti2;
+        }
+        final double s0 = n;
+        if (n >= 3) {
+            // normal equations of v = a + b t + c t^2, Cramer's rule for b
+            final double det = s0 * (s2 * s4 - s3 * s3)
+                    - s1 * (s1 * s4 - s3 * s2)
+                    + s2 * (s1 * s3 - s2 * s2);
+            if (Math.abs(det) > 1e-9 * s0 * s2 * s4) {
+                final double detB = s0 * (svt * s4 - s3 * svt2)
+                        - sv * (s1 * s4 - s3 * s2)
+                        + s2 * (s1 * svt2 - svt * s2);
+                return detB / det;
+            }
+        }
+        final double denom = s0 * s2 - s1 * s1;
+        if (denom == 0) {
+            return 0;
+        }
+        return (s0 * svt - s1 * sv) / denom;
+    }
+
+    /**
+     * Each step between samples changes the kinetic energy of a unit mass
+     * by the work needed to take it from the previous velocity to the
+     * step velocity. Samples are oldest first
+     */
+    static double impulse(double[] t, double[] v, int n) {
+        if (n < 2) {
+            return 0;
+        }
+        if (n == 2) {
+            return t[1] == t[0] ? 0 : (v[1] - v[0]) / (t[1] - t[0]);
+        }
+        double work = 0;
+        for (int i = 1; i < n; i++) {
+            if (t[i] == t[i - 1]) {
+                continue;
+            }
+            final double previous = energyToVelocity(work);
+            final double current = (v[i] - v[i - 1]) / (t[i] - t[i - 1]);
+            work += (current - previous) * Math.abs(current);
+            if (i == 1) {
+                // the object starts at rest, only half the first push counts
+                work *= 0.5;
+            }
+        }
+        return energyToVelocity(work);
+    }
+
+    private static double energyToVelocity(double work) {
+        return Math.signum(work) * Math.sqrt(2 * Math.abs(work));
+    }
+
+    private static float clamp(float velocity, float max) {
+        return velocity > max ? max : (velocity < -max ? -max : velocity);
+    }
+}
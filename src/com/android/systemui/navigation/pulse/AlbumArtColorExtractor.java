@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Pick a Pulse color from album art. Extraction runs on a background
+ * thread from a downsampled copy of the art and results are cached per
+ * media session and track, so each track is only processed once
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.media.MediaMetadata;
+import android.media.session.MediaSession;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+public class AlbumArtColorExtractor {
+    public interface Callback {
+        // Color.TRANSPARENT if the art has no usable color
+        public void onAlbumArtColorExtracted(int color);
+    }
+
+    private static final String TAG = AlbumArtColorExtractor.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_CACHE_SIZE = 16;
+    // longest edge of the sampled bitmap
+    private static final int SAMPLE_SIZE = 48;
+    private static final int HUE_BUCKETS = 36;
+    // ignore grays, near blacks and mostly transparent pixels
+    private static final float MIN_SATURATION = 0.25f;
+    private static final float MIN_VALUE = 0.2f;
+    private static final int MIN_ALPHA = 128;
+
+    private final Handler mHandler;
+    private final Callback mCallback;
+    private final LruCache<String, Integer> mCache = new LruCache<String, Integer>(MAX_CACHE_SIZE);
+    private HandlerThread mThread;
+    private Handler mWorker;
+    private int mRequest;
+
+    /**
+     * @param handler - results are delivered on this handler
+     */
+    public AlbumArtColorExtractor(Handler handler, Callback callback) {
+        mHandler = handler;
+        mCallback = callback;
+    }
+
+    /**
+     * Find the color for the current track of a session. Delivers right
+     * away when cached, otherwise once the worker is done. A newer request
+     * or cancel() drops the result of an older one
+     */
+    public void request(MediaSession.Token token, MediaMetadata metadata) {
+        final int request = ++mRequest;
+        final Bitmap art = getArt(metadata);
+        if (art == null) {
+            // art often arrives in a later metadata update, don't cache the miss
+            mCallback.onAlbumArtColorExtracted(Color.TRANSPARENT);
+            return;
+        }
+        final String key = getKey(token, metadata);
+        final Integer cached = mCache.get(key);
+        if (cached != null) {
+            mCallback.onAlbumArtColorExtracted(cached);
+            return;
+        }
+        ensureWorker();
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final int color = extractColor(art);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCache.put(key, color);
+                        if (request == mRequest) {
+                            mCallback.onAlbumArtColorExtracted(color);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void cancel() {
+        mRequest++;
+    }
+
+    public void destroy() {
+        cancel();
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+            mWorker = null;
+        }
+        mCache.evictAll();
+    }
+
+    private void ensureWorker() {
+        if (mWorker == null) {
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+            mWorker = new Handler(mThread.getLooper());
+        }
+    }
+
+    private static Bitmap getArt(MediaMetadata metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        Bitmap art = metadata.getBitmap(MediaMetadata.METADATA_KEY_ALBUM_ART);
+        if (art == null) {
+            art = metadata.getBitmap(MediaMetadata.METADATA_KEY_ART);
+        }
+        return art;
+    }
+
+    private static String getKey(MediaSession.Token token, MediaMetadata metadata) {
+        String track = metadata.getString(MediaMetadata.METADATA_KEY_MEDIA_ID);
+        if (TextUtils.isEmpty(track)) {
+            track = metadata.getString(MediaMetadata.METADATA_KEY_ALBUM) + "|"
+                    + metadata.getString(MediaMetadata.METADATA_KEY_ARTIST) + "|"
+                    + metadata.getString(MediaMetadata.METADATA_KEY_TITLE);
+        }
+        return token.hashCode() + ":" + track;
+    }
+
+    /**
+     * Weighted hue histogram of the sampled art. The most prominent
+     * saturated hue wins and is returned at full brightness so it reads
+     * well against the bar
+     */
+    static int extractColor(Bitmap art) {
+        final int w = art.getWidth();
+        final int h = art.getHeight();
+        if (w <= 0 || h <= 0) {
+            return Color.TRANSPARENT;
+        }
+        final float scale = Math.min(1f, SAMPLE_SIZE / (float) Math.max(w, h));
+        final int sw = Math.max(1, Math.round(w * scale));
+        final int sh = Math.max(1, Math.round(h * scale));
+        final int[] pixels = new int[sw * sh];
+        try {
+            final Bitmap sample = Bitmap.createScaledBitmap(art, sw, sh, true);
+            sample.getPixels(pixels, 0, sw, 0, 0, sw, sh);
+            if (sample != art) {
+                sample.recycle();
+            }
+        } catch (RuntimeException e) {
+            // art recycled or otherwise unusable
+            Log.e(TAG, "Unable to sample album art", e);
+            return Color.TRANSPARENT;
+        }
+
+        final float[] weights = new float[HUE_BUCKETS];
+        final float[] hues = new float[HUE_BUCKETS];
+        final float[] saturations = new float[HUE_BUCKETS];
+        final float[] hsv = new float[3];
+        for (int pixel : pixels) {
+            if (Color.alpha(pixel) < MIN_ALPHA) {
+                continue;
+            }
+            Color.colorToHSV(pixel, hsv);
+            if (hsv[1] < MIN_SATURATION || hsv[2] < MIN_VALUE) {
+                continue;
+            }
+            final int bucket = Math.min(HUE_BUCKETS - 1, (int) (hsv[0] / 360f * HUE_BUCKETS));
+            final float weight = hsv[1] * hsv[2];
+            weights[bucket] += weight;
+            hues[bucket] += hsv[0] * weight;
+            saturations[bucket] += hsv[1] * weight;
+        }
+
+        int best = 0;
+        for (int i = 1; i < HUE_BUCKETS; i++) {
+            if (weights[i] > weights[best]) {
+                best = i;
+            }
+        }
+        if (weights[best] == 0f) {
+            return Color.TRANSPARENT;
+        }
+        hsv[0] = hues[best] / weights[best];
+        hsv[1] = saturations[best] / weights[best];
+        hsv[2] = 1f;
+        final int color = Color.HSVToColor(hsv);
+        if (DEBUG) {
+            Log.d(TAG, "extracted " + Integer.toHexString(color) + " from " + w + "x" + h);
+        }
+        return color;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Immutable spectrum bar layout. Bar lines, the spectrum bin feeding each
+ * bar and where the magnitude end of a bar goes are computed once per
+ * combination of layout parameters and cached. Renderers copy the line
+ * template into their own buffer and per frame only write the magnitude
+ * coordinate of each line
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class BarGeometry {
+    // bars spread evenly over the full length of the bar, gaps of 1/9th
+    public static final int LAYOUT_EVEN = 0;
+    // one bar every spacing pixels from the start of the bar
+    public static final int LAYOUT_SPACED = 1;
+
+    private static final int MAX_CACHED = 8;
+
+    private static final Map<String, BarGeometry> sCache =
+            new LinkedHashMap<String, BarGeometry>(MAX_CACHED, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BarGeometry> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    private final int mBarCount;
+    private final boolean mVertical;
+    private final float mStrokeWidth;
+    private final float[] mPoints;
+    private final int[] mBins;
+    private final int mMagnitudeOffset;
+    private final float mBaseline;
+    private final float mDirection;
+
+    /**
+     * @param layout - LAYOUT_EVEN or LAYOUT_SPACED
+     * @param spacing - pixels between bars for LAYOUT_SPACED, ignored otherwise
+     * @param binStride - spectrum bins between consecutive bars
+     * @param binOffset - spectrum bin of the first bar
+     * @param magnitudeAtEnd - grow the end point of each line instead of the start
+     */
+    public static BarGeometry obtain(int layout, int width, int height, int barCount,
+            int spacing, int binStride, int binOffset, boolean leftInLandscape,
+            boolean magnitudeAtEnd) {
+        final String key = makeKey(layout, width, height, barCount, spacing, binStride,
+                binOffset, leftInLandscape, magnitudeAtEnd);
+        synchronized (sCache) {
+            BarGeometry geometry = sCache.get(key);
+            if (geometry == null) {
+                geometry = new BarGeometry(layout, width, height, barCount, spacing,
+                        binStride, binOffset, leftInLandscape, magnitudeAtEnd);
+                sCache.put(key, geometry);
+            }
+            return geometry;
+        }
+    }
+
+    private static String makeKey(int layout, int width, int height, int barCount,
+            int spacing, int binStride, int binOffset, boolean leftInLandscape,
+            boolean magnitudeAtEnd) {
+        return layout + ":" + width + "x" + height + ":" + barCount + ":" + spacing + ":"
+                + binStride + ":" + binOffset + ":" + leftInLandscape + ":" + magnitudeAtEnd;
+    }
+
+    private BarGeometry(int layout, int width, int height, int barCount,
+            int spacing, int binStride, int binOffset, boolean leftInLandscape,
+            boolean magnitudeAtEnd) {
+        mBarCount = barCount;
+        mVertical = height > width;
+        mPoints = new float[barCount * 4];
+        mBins = new int[barCount];
+
+        // position along the bar of each line and its thickness
+        final float unit;
+        final float first;
+        if (layout == LAYOUT_EVEN) {
+            final float length = mVertical ? height : width;
+            float barUnit = length / (float) barCount;
+            final float barWidth = barUnit * 8f / 9f;
+            if (barCount > 1) {
+                barUnit = barWidth + (barUnit - barWidth) * barCount / (barCount - 1f);
+            }
+            mStrokeWidth = barWidth;
+            unit = barUnit;
+            first = barWidth / 2;
+        } else {
+            mStrokeWidth = 0f;
+            unit = spacing;
+            first = 0f;
+        }
+
+        if (mVertical) {
+            mBaseline = leftInLandscape ? 0 : width;
+            mDirection = leftInLandscape ? 1f : -1f;
+            mMagnitudeOffset = magnitudeAtEnd ? 2 : 0;
+        } else {
+            mBaseline = height;
+            mDirection = -1f;
+            mMagnitudeOffset = magnitudeAtEnd ? 3 : 1;
+        }
+
+        for (int i = 0; i < barCount; i++) {
+            final float pos = first + i * unit;
+            if (mVertical) {
+                mPoints[i * 4] = mPoints[i * 4 + 2] = mBaseline;
+                mPoints[i * 4 + 1] = mPoints[i * 4 + 3] = pos;
+            } else {
+                mPoints[i * 4] = mPoints[i * 4 + 2] = pos;
+                mPoints[i * 4 + 1] = mPoints[i * 4 + 3] = mBaseline;
+            }
+            mBins[i] = binOffset + i * binStride;
+        }
+    }
+
+    public int getBarCount() {
+        return mBarCount;
+    }
+
+    public boolean isVertical() {
+        return mVertical;
+    }
+
+    /**
+     * @return line thickness for LAYOUT_EVEN, 0 for LAYOUT_SPACED
+     */
+    public float getStrokeWidth() {
+        return mStrokeWidth;
+    }
+
+    /**
+     * @return spectrum bin that feeds bar
+     */
+    public int getBin(int bar) {
+        return mBins[bar];
+    }
+
+    /**
+     * Reset a buffer of at least getBarCount() * 4 floats to the line
+     * template, every bar at zero height
+     */
+    public void copyPointsTo(float[] points) {
+        System.arraycopy(mPoints, 0, points, 0, mPoints.length);
+    }
+
+    /**
+     * @return index in a line buffer of the magnitude coordinate of bar
+     */
+    public int getMagnitudeIndex(int bar) {
+        return bar * 4 + mMagnitudeOffset;
+    }
+
+    /**
+     * @return magnitude coordinate for a bar of the given height
+     */
+    public float getMagnitudeCoordinate(float height) {
+        return mBaseline + mDirection * height;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Interpolate bar values between the two most recent spectrum frames so
+ * renderers can animate at display rate from a low capture rate. The
+ * interpolation spans the measured interval between captures. Heights are
+ * integer pixels, kept internally in fixed point so there is no float math
+ * until a renderer converts a value with toPixels() at draw time
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.util.Arrays;
+
+public class BarInterpolator {
+    // fixed point values carry this many fractional bits
+    static final int VALUE_SHIFT = 4;
+    // interpolation fraction runs from 0 to FRACTION_ONE
+    static final int FRACTION_SHIFT = 8;
+    public static final int FRACTION_ONE = 1 << FRACTION_SHIFT;
+    // largest height that fits a short with VALUE_SHIFT fractional bits
+    public static final int MAX_HEIGHT = Short.MAX_VALUE >> VALUE_SHIFT;
+
+    // keep motion sane if captures stall or bunch up
+    private static final long MIN_INTERVAL_MILLIS = 16;
+    private static final long MAX_INTERVAL_MILLIS = 200;
+    private static final long DEFAULT_INTERVAL_MILLIS = 80;
+
+    private short[] mFrom = new short[0];
+    private short[] mTo = new short[0];
+    private int mCount;
+    private long mStartTime;
+    private long mLastFrameTime;
+    private long mInterval = DEFAULT_INTERVAL_MILLIS;
+
+    /**
+     * Resize and snap every bar to height
+     */
+    public void reset(int count, int height) {
+        if (mFrom.length < count) {
+            mFrom = new short[count];
+            mTo = new short[count];
+        }
+        mCount = count;
+        final short value = toFixed(height);
+        Arrays.fill(mFrom, 0, count, value);
+        Arrays.fill(mTo, 0, count, value);
+        mLastFrameTime = 0;
+        mStartTime = 0;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * A new frame arrived. Whatever is on screen now becomes the start
+     * point, caller then sets new targets with setTarget()
+     *
+     * @param frameTime - uptime millis of the new frame
+     * @param now - current uptime millis
+     */
+    public void beginFrame(long frameTime, long now) {
+        final int fraction = getFraction(now);
+        for (int i = 0; i < mCount; i++) {
+            mFrom[i] = (short) getValue(i, fraction);
+        }
+        skipFrame(frameTime);
+        mStartTime = now;
+    }
+
+    /**
+     * A frame arrived but targets stay as they are. Keeps the interval
+     * measured against the capture rate rather than the published frames
+     */
+    public void skipFrame(long frameTime) {
+        if (mLastFrameTime > 0) {
+            mInterval = Math.max(MIN_INTERVAL_MILLIS,
+                    Math.min(MAX_INTERVAL_MILLIS, frameTime - mLastFrameTime));
+        }
+        mLastFrameTime = frameTime;
+    }
+
+    /**
+     * @param height - target height in whole pixels, clamped to MAX_HEIGHT
+     */
+    public void setTarget(int index, int height) {
+        mTo[index] = toFixed(height);
+    }
+
+    /**
+     * @return progress towards the targets, 0 to FRACTION_ONE
+     */
+    public int getFraction(long now) {
+        if (mStartTime == 0) {
+            return FRACTION_ONE;
+        }
+        final long elapsed = now - mStartTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        if (elapsed >= mInterval) {
+            return FRACTION_ONE;
+        }
+        return (int) ((elapsed << FRACTION_SHIFT) / mInterval);
+    }
+
+    /**
+     * @return fixed point value of a bar, convert with toPixels()
+     */
+    public int getValue(int index, int fraction) {
+        final int from = mFrom[index];
+        return from + (((mTo[index] - from) * fraction) >> FRACTION_SHIFT);
+    }
+
+    public boolean isAnimating(long now) {
+        return getFraction(now) < FRACTION_ONE;
+    }
+
+    public long getInterval() {
+        return mInterval;
+    }
+
+    public static float toPixels(int value) {
+        return value / (float) (1 << VALUE_SHIFT);
+    }
+
+    static short toFixed(int height) {
+        return (short) (Math.max(0, Math.min(MAX_HEIGHT, height)) << VALUE_SHIFT);
+    }
+}
@@ -30,6 +30,7 @@ import android.graphics.Bitmap.Config;
 import android.graphics.PorterDuff.Mode;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.TypedValue;
@@ -40,16 +41,27 @@ import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class FadingBlockRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
     private static final int DEF_PAINT_ALPHA = (byte) 188;
-    private byte[] mFFTBytes;
+    // the trail used to fade by FADE_ALPHA once per capture at roughly this
+    // interval. Captures now come at a varying rate, so scale alpha by elapsed time
+    private static final int FADE_ALPHA = 200;
+    private static final float FADE_REFERENCE_MILLIS = 50f;
+    // keep fading between captures at this rate until the surface is clear
+    private static final long DECAY_INTERVAL_MILLIS = 50;
+    // brightest thing left on the surface below which it gets erased
+    private static final float MIN_SURFACE_LEVEL = 1 / 255f;
     private Paint mPaint;
     private Paint mFadePaint;
-    private boolean mVertical;
     private boolean mLeftInLandscape;
     private float[] mFFTPoints;
-    private byte rfk, ifk;
+    private BarGeometry mGeometry;
+    private BarInterpolator mInterpolator;
+    private long mLastFadeTime;
+    // brightness of what's on the fade surface, 0 when clear
+    private float mSurfaceLevel;
     private int dbValue;
-    private float magnitude;
     private int mDivisions;
+    private int mBarReduction = 1;
+    private boolean mFadeSurfaceEnabled = true;
     private int mUserColor;
     private int mDbFuzzFactor;
     private int mDbFuzz;
@@ -62,20 +74,33 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     private int mHeight;
 
     private ColorAnimator mLavaLamp;
+    private ColorAnimator mColorTransition;
     private LegacySettingsObserver mObserver;
     private boolean mLavaLampEnabled;
     private boolean mIsValidStream;
 
+    private final Runnable mDecay = new Runnable() {
+        @Override
+        public void run() {
+            if (mCanvas != null && fadeSurface(SystemClock.uptimeMillis())) {
+                postInvalidateOnAnimation();
+            }
+        }
+    };
+
     public FadingBlockRenderer(Context context, Handler handler, PulseObserver callback) {
         super(context, handler, callback);
         mObserver = new LegacySettingsObserver(handler);
         mLavaLamp = new ColorAnimator();
         mLavaLamp.setColorAnimatorListener(this);
+        mColorTransition = new ColorAnimator();
+        mColorTransition.setColorAnimatorListener(this);
         mPaint = new Paint();
         mFadePaint = new Paint();
-        mFadePaint.setColor(Color.argb(200, 255, 255, 255));
+        mFadePaint.setColor(Color.argb(FADE_ALPHA, 255, 255, 255));
         mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
         mMatrix = new Matrix();
+        mInterpolator = new BarInterpolator();
         mDbFuzz = mContext.getResources().getInteger(R.integer.config_pulseDbFuzz);
         mObserver.updateSettings();
         mPaint.setAntiAlias(true);
@@ -87,44 +112,89 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         mIsValidStream = isValid;
         if (isValid) {
             onSizeChanged(0, 0, 0, 0);
-            if (mLavaLampEnabled) {
+            if (isLavaLampActive()) {
                 mLavaLamp.start();
             }
         }
     }
 
     @Override
-    public void onFFTUpdate(byte[] bytes) {
-        mFFTBytes = bytes;
-        if (mFFTBytes != null) {
-            if (mFFTPoints == null || mFFTPoints.length < mFFTBytes.length * 4) {
-                mFFTPoints = new float[mFFTBytes.length * 4];
+    public void onSpectrumUpdate(SpectrumFrame frame) {
+        final int divisions = mDivisions * mBarReduction;
+        final int count = frame.getBinCount() * 2 / divisions;
+        BarGeometry geometry = mGeometry;
+        if (geometry == null || geometry.getBarCount() != count) {
+            if (mWidth <= 0 || mHeight <= 0) {
+                return;
+            }
+            geometry = BarGeometry.obtain(BarGeometry.LAYOUT_SPACED, mWidth, mHeight, count,
+                    4 * divisions, divisions / 2, 0, mLeftInLandscape, true);
+            if (mFFTPoints == null || mFFTPoints.length < count * 4) {
+                mFFTPoints = new float[count * 4];
             }
-            for (int i = 0; i < mFFTBytes.length / mDivisions; i++) {
-                if (mVertical) {
-                    mFFTPoints[i * 4 + 1] = i * 4 * mDivisions;
-                    mFFTPoints[i * 4 + 3] = i * 4 * mDivisions;
-                } else {
-                    mFFTPoints[i * 4] = i * 4 * mDivisions;
-                    mFFTPoints[i * 4 + 2] = i * 4 * mDivisions;
-                }
-                rfk = mFFTBytes[mDivisions * i];
-                ifk = mFFTBytes[mDivisions * i + 1];
-                magnitude = (rfk * rfk + ifk * ifk);
-                dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-                if (mVertical) {
-                    mFFTPoints[i * 4] = mLeftInLandscape ? 0 : mWidth;
-                    mFFTPoints[i * 4 + 2] = mLeftInLandscape ? (dbValue * mDbFuzzFactor + mDbFuzz)
-                            : (mWidth - (dbValue * mDbFuzzFactor + mDbFuzz));
-                } else {
-                    mFFTPoints[i * 4 + 1] = mHeight;
-                    mFFTPoints[i * 4 + 3] = mHeight - (dbValue * mDbFuzzFactor + mDbFuzz);
-                }
+            geometry.copyPointsTo(mFFTPoints);
+            mInterpolator.reset(count, 0);
+            mGeometry = geometry;
+        } else if (frame.isStill()) {
+            // nothing new, let the current motion finish without a redraw
+            mInterpolator.skipFrame(frame.getTimestamp());
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        mInterpolator.beginFrame(frame.getTimestamp(), now);
+        for (int i = 0; i < count; i++) {
+            dbValue = frame.getDb(geometry.getBin(i));
+            mInterpolator.setTarget(i, dbValue * mDbFuzzFactor + mDbFuzz);
+        }
+        if (mFadeSurfaceEnabled) {
+            // the surface only changes per capture, draw() just shows it
+            if (mCanvas == null) {
+                return;
             }
+            updateBarHeights(geometry, BarInterpolator.FRACTION_ONE);
+            fadeSurface(now);
+            mCanvas.drawLines(mFFTPoints, 0, count * 4, mPaint);
+            mSurfaceLevel = 1f;
+            scheduleDecay();
+        }
+        postInvalidateOnAnimation();
+    }
+
+    private void updateBarHeights(BarGeometry geometry, int fraction) {
+        for (int i = 0; i < geometry.getBarCount(); i++) {
+            mFFTPoints[geometry.getMagnitudeIndex(i)] = geometry.getMagnitudeCoordinate(
+                    BarInterpolator.toPixels(mInterpolator.getValue(i, fraction)));
         }
-        mCanvas.drawLines(mFFTPoints, mPaint);
-        mCanvas.drawPaint(mFadePaint);
-        postInvalidate();
+    }
+
+    /*
+     * Fade the surface by the time since it was last faded
+     *
+     * @return true if the surface changed
+     */
+    private boolean fadeSurface(long now) {
+        final long elapsed = now - mLastFadeTime;
+        mLastFadeTime = now;
+        if (mSurfaceLevel == 0 || elapsed <= 0) {
+            return false;
+        }
+        final double keep = Math.pow(FADE_ALPHA / 255d, elapsed / FADE_REFERENCE_MILLIS);
+        mSurfaceLevel *= keep;
+        if (mSurfaceLevel < MIN_SURFACE_LEVEL) {
+            // multiply stalls on the last few levels, finish the job
+            mCanvasBitmap.eraseColor(Color.TRANSPARENT);
+            mSurfaceLevel = 0;
+        } else {
+            mFadePaint.setAlpha((int) (255 * keep));
+            mCanvas.drawPaint(mFadePaint);
+            scheduleDecay();
+        }
+        return true;
+    }
+
+    private void scheduleDecay() {
+        mHandler.removeCallbacks(mDecay);
+        mHandler.postDelayed(mDecay, DECAY_INTERVAL_MILLIS);
     }
 
     @Override
@@ -132,9 +202,60 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         if (mCallback.getWidth() > 0 && mCallback.getHeight() > 0) {
             mWidth = mCallback.getWidth();
             mHeight = mCallback.getHeight();
-            mVertical = mHeight > mWidth;
-            mCanvasBitmap = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_8888);
-            mCanvas = new Canvas(mCanvasBitmap);
+            mGeometry = null;
+            if (mFadeSurfaceEnabled) {
+                mCanvasBitmap = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_8888);
+                mCanvas = new Canvas(mCanvasBitmap);
+                mSurfaceLevel = 0;
+                mHandler.removeCallbacks(mDecay);
+            }
+        }
+    }
+
+    @Override
+    protected void onQualityTierChanged(int tier) {
+        mBarReduction = PulseQualityGovernor.getBarReduction(tier);
+        mPaint.setAntiAlias(PulseQualityGovernor.isAntiAliasAllowed(tier));
+        // bar layout changes with the bar reduction
+        mGeometry = null;
+        final boolean fadeSurface = PulseQualityGovernor.isFadeSurfaceAllowed(tier);
+        if (mFadeSurfaceEnabled != fadeSurface) {
+            mFadeSurfaceEnabled = fadeSurface;
+            if (fadeSurface) {
+                onSizeChanged(0, 0, 0, 0);
+            } else {
+                // draw lines straight to the bar, release the surface
+                mHandler.removeCallbacks(mDecay);
+                mCanvasBitmap = null;
+                mCanvas = null;
+                mSurfaceLevel = 0;
+            }
+        }
+        if (isLavaLampActive() && mIsValidStream) {
+            mLavaLamp.start();
+        } else {
+            mLavaLamp.stop();
+        }
+    }
+
+    private boolean isLavaLampActive() {
+        return mLavaLampEnabled && PulseQualityGovernor.isLavaLampAllowed(mQualityTier)
+                && !isAlbumArtColorActive();
+    }
+
+    private int getBaseColor() {
+        return isAlbumArtColorActive() ? mAlbumArtColor : mUserColor;
+    }
+
+    @Override
+    protected void onAlbumArtColorChanged(int color) {
+        final int fromColor = mPaint.getColor();
+        if (isLavaLampActive() && mIsValidStream) {
+            mColorTransition.stop();
+            mLavaLamp.start();
+        } else {
+            mLavaLamp.stop();
+            mColorTransition.transition(fromColor, getBaseColor());
         }
     }
 
@@ -149,13 +270,14 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
 
     @Override
     public void onStopAnimation(ColorAnimator colorAnimator, int lastColor) {
-        mPaint.setColor(applyPaintAlphaToColor(mUserColor));
+        mPaint.setColor(applyPaintAlphaToColor(getBaseColor()));
     }
 
     @Override
     public void setLeftInLandscape(boolean leftInLandscape) {
         if (mLeftInLandscape != leftInLandscape) {
             mLeftInLandscape = leftInLandscape;
+            mGeometry = null;
             onSizeChanged(0, 0, 0, 0);
         }
     }
@@ -164,6 +286,8 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     public void destroy() {
         mContext.getContentResolver().unregisterContentObserver(mObserver);
         mLavaLamp.stop();
+        mColorTransition.stop();
+        mHandler.removeCallbacks(mDecay);
         mCanvasBitmap = null;
     }
 
@@ -176,7 +300,22 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawBitmap(mCanvasBitmap, mMatrix, null);
+        if (mFadeSurfaceEnabled) {
+            if (mCanvasBitmap != null) {
+                canvas.drawBitmap(mCanvasBitmap, mMatrix, null);
+            }
+            return;
+        }
+        final BarGeometry geometry = mGeometry;
+        if (geometry == null) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        updateBarHeights(geometry, mInterpolator.getFraction(now));
+        canvas.drawLines(mFFTPoints, 0, geometry.getBarCount() * 4, mPaint);
+        if (mInterpolator.isAnimating(now)) {
+            postInvalidateOnAnimation();
+        }
     }
 
     private int applyPaintAlphaToColor(int color) {
@@ -237,14 +376,14 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                     Settings.Secure.FLING_PULSE_COLOR,
                     mContext.getResources().getColor(R.color.config_pulseFillColor),
                     UserHandle.USER_CURRENT);
-            if (!mLavaLampEnabled) {
-                mPaint.setColor(applyPaintAlphaToColor(mUserColor));
+            if (!isLavaLampActive()) {
+                mPaint.setColor(applyPaintAlphaToColor(getBaseColor()));
             }
             int time = Settings.Secure.getIntForUser(resolver,
                     Settings.Secure.FLING_PULSE_LAVALAMP_SPEED, 10000,
                     UserHandle.USER_CURRENT);
             mLavaLamp.setAnimationTime(time);
-            if (mLavaLampEnabled && mIsValidStream) {
+            if (isLavaLampActive() && mIsValidStream) {
                 mLavaLamp.start();
             } else {
                 mLavaLamp.stop();
@@ -274,6 +413,7 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
             }, 0));
             mPaint.setStrokeWidth(getLimitedDimenValue(customDimen, 1, 30, res));
             mDivisions = validateDivision(numDivision);
+            mGeometry = null;
             mDbFuzzFactor = Math.max(2, Math.min(6, fudgeFactor));
         }
     }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Spectral flux novelty on decoded frames. Flux is the sum of per bin
+ * decibel increases since the previous frame; an onset is flux well above
+ * its running average. Separately, a frame is marked still when no bin
+ * moved perceptibly since the last frame that wasn't, so renderers can
+ * skip redrawing it. Works in place on preallocated buffers
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class OnsetDetector {
+    // no bin moved more than this many dB, nobody will see the difference
+    private static final int STILL_THRESHOLD_DB = 1;
+    // onset when flux exceeds the running average by this ratio and margin
+    private static final float ONSET_RATIO = 1.5f;
+    private static final int ONSET_MIN_FLUX = 24;
+    // weight of a new frame in the running flux average
+    private static final float FLUX_SMOOTHING = 1f / 8f;
+    // don't report onsets closer together than this
+    private static final long ONSET_REFRACTORY_MILLIS = 100;
+
+    private byte[] mPrevious = new byte[0];
+    // last frame that was not still
+    private byte[] mReference = new byte[0];
+    private int mBinCount;
+    private float mAverageFlux;
+    private long mLastOnsetTime;
+
+    public void reset() {
+        mBinCount = 0;
+        mAverageFlux = 0f;
+        mLastOnsetTime = 0;
+    }
+
+    /**
+     * Analyze a freshly decoded frame and store flux, onset and still
+     * state in it
+     */
+    public void process(SpectrumFrame frame) {
+        final int bins = frame.getBinCount();
+        if (bins != mBinCount) {
+            // first frame or capture size change, nothing to compare to
+            if (mPrevious.length < bins) {
+                mPrevious = new byte[bins];
+                mReference = new byte[bins];
+            }
+            for (int i = 0; i < bins; i++) {
+                mPrevious[i] = mReference[i] = (byte) frame.getDb(i);
+            }
+            mBinCount = bins;
+            frame.setNovelty(0, false, false);
+            return;
+        }
+
+        int flux = 0;
+        boolean still = true;
+        for (int i = 0; i < bins; i++) {
+            final int db = frame.getDb(i);
+            final int rise = db - mPrevious[i];
+            if (rise > 0) {
+                flux += rise;
+            }
+            mPrevious[i] = (byte) db;
+            if (still) {
+                final int drift = db - mReference[i];
+                if (drift > STILL_THRESHOLD_DB || drift < -STILL_THRESHOLD_DB) {
+                    still = false;
+                }
+            }
+        }
+        if (!still) {
+            for (int i = 0; i < bins; i++) {
+                mReference[i] = mPrevious[i];
+            }
+        }
+
+        final long time = frame.getTimestamp();
+        final boolean onset = flux > mAverageFlux * ONSET_RATIO + ONSET_MIN_FLUX
+                && time - mLastOnsetTime >= ONSET_REFRACTORY_MILLIS;
+        if (onset) {
+            mLastOnsetTime = time;
+        }
+        mAverageFlux += (flux - mAverageFlux) * FLUX_SMOOTHING;
+        frame.setNovelty(flux, onset, still);
+    }
+}
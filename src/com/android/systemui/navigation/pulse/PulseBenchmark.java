@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * On device check of the integer spectrum pipeline. Verifies the table
+ * decode bit for bit against the float math the renderers used to do.
+ * Interpolated heights are not bit exact, fixed point keeps 1/16 px: they
+ * match a float reference exactly at both ends and to within one step in
+ * between. Then times float against fixed point interpolation over the
+ * same decoded frames. Runs when DUMP_ARG is passed to the navigation bar
+ * dump, so it is kept to a few milliseconds
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import java.io.PrintWriter;
+import java.util.Random;
+
+public final class PulseBenchmark {
+    public static final String DUMP_ARG = "--pulse-bench";
+
+    private static final int CAPTURE_SIZE = 1024;
+    private static final int BARS = 32;
+    private static final int FUZZ_FACTOR = 5;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int FRAMES = 2000;
+    // display frames drawn per capture, 60fps over 15Hz
+    private static final int DRAWS_PER_FRAME = 4;
+    // largest dB a pair of signed bytes can produce
+    private static final int MAX_DB = 45;
+    // tallest bar with the largest fudge factor a renderer allows
+    private static final int MAX_HEIGHT = MAX_DB * 10;
+    private static final int[] FRACTIONS = {
+            0, 1, 32, 64, 85, 127, 128, 171, 192, 224, 255, BarInterpolator.FRACTION_ONE
+    };
+
+    // keep the JIT from throwing away the float path
+    private static volatile float sSink;
+
+    private PulseBenchmark() {}
+
+    public static void run(PrintWriter pw) {
+        pw.println("  PulseBenchmark {");
+        final int mismatches = verify(pw);
+        pw.println("    verify: " + (mismatches == 0 ? "ok" : mismatches + " mismatches"));
+
+        final int[][] frames = makeFrames();
+        benchFloat(frames, WARMUP_FRAMES);
+        benchFixed(frames, WARMUP_FRAMES);
+        final long floatNanos = benchFloat(frames, FRAMES);
+        final long fixedNanos = benchFixed(frames, FRAMES);
+        pw.println("    interpolate " + BARS + " bars, " + DRAWS_PER_FRAME + " draws/frame:");
+        pw.println("      float: " + (floatNanos / FRAMES) + "ns/frame");
+        pw.println("      fixed: " + (fixedNanos / FRAMES) + "ns/frame");
+        pw.println("  }");
+    }
+
+    /**
+     * @return number of inputs where the integer pipeline differs from the
+     *         float reference by more than it may
+     */
+    static int verify(PrintWriter pw) {
+        int mismatches = 0;
+        // every possible byte pair through the decode table, exact
+        final SpectrumFrame frame = new SpectrumFrame(1);
+        final byte[] pair = new byte[2];
+        for (int r = Byte.MIN_VALUE; r <= Byte.MAX_VALUE; r++) {
+            for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; i++) {
+                pair[0] = (byte) r;
+                pair[1] = (byte) i;
+                frame.decode(pair, 0, 0);
+                final int expected = referenceDb(r, i);
+                if (frame.getDb(0) != expected) {
+                    if (mismatches++ < 10) {
+                        pw.println("    decode " + r + "," + i + ": " + frame.getDb(0)
+                                + " != " + expected);
+                    }
+                }
+            }
+        }
+        // interpolated heights. Whole pixel starts are exact in fixed point,
+        // so the error only depends on how far a bar moves: every distance
+        // a renderer can produce, from the lowest and highest start it allows.
+        // Exact at the ends, within one fixed point step in between
+        final BarInterpolator interpolator = new BarInterpolator();
+        final float step = BarInterpolator.toPixels(1);
+        float maxError = 0f;
+        for (int delta = -MAX_HEIGHT; delta <= MAX_HEIGHT; delta++) {
+            final int lowest = Math.max(0, -delta);
+            final int highest = MAX_HEIGHT - Math.max(0, delta);
+            for (int from = lowest; from <= highest; from += Math.max(1, highest - lowest)) {
+                final int to = from + delta;
+                interpolator.reset(1, from);
+                interpolator.setTarget(0, to);
+                for (int fraction : FRACTIONS) {
+                    final float fixed = BarInterpolator.toPixels(
+                            interpolator.getValue(0, fraction));
+                    final float expected = from
+                            + (to - from) * (fraction / (float) BarInterpolator.FRACTION_ONE);
+                    final float error = Math.abs(fixed - expected);
+                    maxError = Math.max(maxError, error);
+                    final boolean end = fraction == 0
+                            || fraction == BarInterpolator.FRACTION_ONE;
+                    if (end ? error != 0f : error >= step) {
+                        if (mismatches++ < 10) {
+                            pw.println("    height " + from + "->" + to + " @" + fraction
+                                    + ": " + fixed + " != " + expected);
+                        }
+                    }
+                }
+            }
+        }
+        pw.println("    interpolation max error=" + maxError + "px step=" + step + "px");
+        return mismatches;
+    }
+
+    // what the renderers computed per bin before the decode table
+    private static int referenceDb(int r, int i) {
+        final float rfk = r;
+        final float ifk = i;
+        final float magnitude = rfk * rfk + ifk * ifk;
+        return magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
+    }
+
+    // bar targets of random captures, decoded up front so only interpolation is timed
+    private static int[][] makeFrames() {
+        final Random random = new Random(0);
+        final byte[] capture = new byte[CAPTURE_SIZE];
+        final SpectrumFrame frame = new SpectrumFrame(CAPTURE_SIZE / 2);
+        final int[][] frames = new int[16][BARS];
+        for (int[] heights : frames) {
+            random.nextBytes(capture);
+            frame.decode(capture, 0, 0);
+            for (int i = 0; i < BARS; i++) {
+                heights[i] = frame.getDb(i + 1) * FUZZ_FACTOR;
+            }
+        }
+        return frames;
+    }
+
+    // the interpolator as it would be written with floats
+    private static long benchFloat(int[][] frames, int count) {
+        final float[] from = new float[BARS];
+        final float[] to = new float[BARS];
+        float sink = 0f;
+        final long start = System.nanoTime();
+        for (int f = 0; f < count; f++) {
+            final int[] heights = frames[f % frames.length];
+            for (int i = 0; i < BARS; i++) {
+                from[i] = to[i];
+                to[i] = heights[i];
+            }
+            for (int d = 1; d <= DRAWS_PER_FRAME; d++) {
+                final float fraction = d / (float) DRAWS_PER_FRAME;
+                for (int i = 0; i < BARS; i++) {
+                    sink += from[i] + (to[i] - from[i]) * fraction;
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        sSink = sink;
+        return elapsed;
+    }
+
+    private static long benchFixed(int[][] frames, int count) {
+        final BarInterpolator interpolator = new BarInterpolator();
+        interpolator.reset(BARS, 0);
+        float sink = 0f;
+        final long start = System.nanoTime();
+        for (int f = 0; f < count; f++) {
+            final int[] heights = frames[f % frames.length];
+            // now 0 leaves the fraction at one, previous targets become the start
+            interpolator.beginFrame(f, 0);
+            for (int i = 0; i < BARS; i++) {
+                interpolator.setTarget(i, heights[i]);
+            }
+            for (int d = 1; d <= DRAWS_PER_FRAME; d++) {
+                final int fraction = d * BarInterpolator.FRACTION_ONE / DRAWS_PER_FRAME;
+                for (int i = 0; i < BARS; i++) {
+                    sink += BarInterpolator.toPixels(interpolator.getValue(i, fraction));
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        sSink = sink;
+        return elapsed;
+    }
+}
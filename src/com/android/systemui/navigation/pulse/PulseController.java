@@ -24,6 +24,7 @@
 
 package com.android.systemui.navigation.pulse;
 
+import com.android.systemui.R;
 import com.android.systemui.navigation.pulse.PulseController;
 import com.android.systemui.navigation.utils.MediaMonitor;
 
@@ -33,28 +34,37 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.ContentObserver;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.media.AudioManager;
 import android.media.IAudioService;
+import android.media.MediaMetadata;
+import android.media.session.MediaSession;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.animation.Animation;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
 public class PulseController {
     public interface PulseObserver {
         public int getWidth();
         public int getHeight();
         public void postInvalidate();
+        public void postInvalidateOnAnimation();
+        public void postInvalidateDelayed(long delayMilliseconds);
+        // applied to the whole Pulse layer, no offscreen pass needed
+        public void setPulseAlpha(float alpha);
 
         // return false to immediately begin Pulse
         // return true to do pre-processing. Implementation MUST
@@ -63,9 +73,30 @@ public class PulseController {
         public void onStopPulse(Animation animatePulseOut);
     }
 
+    /**
+     * Additional Pulse consumers, fed from the same visualizer link and
+     * decode as the navbar renderer
+     */
+    public interface SpectrumListener {
+        /**
+         * @param frame - valid only until this returns, keep frame.copy()
+         *         to use the data later
+         */
+        public void onSpectrumUpdate(SpectrumFrame frame);
+
+        // true when frames start flowing for a stream, false when they stop
+        public void onSpectrumStreamChanged(boolean streaming);
+    }
+
     private static final String TAG = PulseController.class.getSimpleName();
     private static final int RENDER_STYLE_LEGACY = 0;
     private static final int RENDER_STYLE_CM = 1;
+    // opacity while rendering ahead of stream validation
+    private static final float PROVISIONAL_ALPHA = 0x60 / 255f;
+    // Settings.Secure key. The other Pulse keys are defined in frameworks/base,
+    // outside this tree; this one stays here until it gets a constant and
+    // settings UI there. Off unless 1: settings put secure pulse_album_art_color 1
+    private static final String PULSE_ALBUM_ART_COLOR = "pulse_album_art_color";
 
     private Context mContext;
     private Handler mHandler;
@@ -75,17 +106,33 @@ public class PulseController {
     private VisualizerStreamHandler mStreamHandler;
     private PulseObserver mPulseObserver;
     private SettingsObserver mSettingsObserver;
-    private Bitmap mAlbumArt;
+    private PulseQualityGovernor mQualityGovernor;
+    private PulseTierCalibrator mTierCalibrator;
+    // renderer work done on captures since the last draw, the next frame pays for it
+    private long mPendingUpdateNanos;
+    private final PulseStats mStats = new PulseStats();
+    private final OnsetDetector mOnsetDetector = new OnsetDetector();
+    private AlbumArtColorExtractor mAlbumArtColorExtractor;
     private int mAlbumArtColor;
+    private boolean mAlbumArtColorEnabled;
     private boolean mPulseEnabled;
     private boolean mKeyguardShowing;
     private boolean mLinked;
+    private boolean mProvisional;
+    private boolean mStreaming;
+    private final ArrayList<SpectrumListener> mSpectrumListeners = new ArrayList<SpectrumListener>();
+    private final SpectrumFrame[] mFramePool = new SpectrumFrame[SpectrumFrame.FRAME_POOL_SIZE];
+    private int mFrameIndex;
+    // what SpectrumListeners see, kept apart from the pool the renderer reads
+    private SpectrumFrame mListenerFrame;
+    private long mFrameSequence;
     private boolean mPowerSaveModeEnabled;
     private boolean mScreenOn;
     private boolean mMusicStreamMuted;
     private boolean mLeftInLandscape;
     private boolean mScreenPinningEnabled;
     private int mPulseStyle;
+    private int mQualityTier = PulseQualityGovernor.TIER_FULL;
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
@@ -121,22 +168,63 @@ public class PulseController {
     private final VisualizerStreamHandler.Listener mStreamListener = new VisualizerStreamHandler.Listener() {
         @Override
         public void onStreamAnalyzed(boolean isValid) {
-            if (mRenderer != null) {
+            final boolean wasProvisional = mProvisional;
+            setProvisional(false);
+            // a provisional renderer is already set up for this stream
+            if (mRenderer != null && !(isValid && wasProvisional)) {
                 mRenderer.onStreamAnalyzed(isValid);
             }
             if (isValid) {
+                notifyStreamingChanged(true);
                 if (!mPulseObserver.onStartPulse(null)) {
                     turnOnPulse();
                 }
             } else {
                 doSilentUnlinkVisualizer();
+                if (wasProvisional) {
+                    // roll back quietly, just clear what we drew
+                    if (mRenderer != null) {
+                        mRenderer.onVisualizerLinkChanged(false);
+                    }
+                    mPulseObserver.postInvalidate();
+                }
+            }
+        }
+
+        @Override
+        public void onStreamProvisional() {
+            if (mRenderer == null || mPulseObserver == null || !isPulseEnabled()) {
+                return;
             }
+            setProvisional(true);
+            mRenderer.onStreamAnalyzed(true);
+            notifyStreamingChanged(true);
+            mStreamHandler.resume();
         }
 
         @Override
         public void onFFTUpdate(byte[] bytes) {
+            // decode once, every consumer reads the same frame
+            final long start = System.nanoTime();
+            final SpectrumFrame frame = obtainFrame(bytes.length / 2);
+            frame.decode(bytes, SystemClock.uptimeMillis(), mFrameSequence++);
+            mOnsetDetector.process(frame);
+            mStats.decodeTime.record(System.nanoTime() - start);
+            if (frame.isStill()) {
+                mStats.framesStill.incrementAndGet();
+            }
+            if (frame.isOnset()) {
+                mStats.onsets.incrementAndGet();
+            }
             if (mRenderer != null) {
-                mRenderer.onFFTUpdate(bytes);
+                final long updateStart = System.nanoTime();
+                mRenderer.onSpectrumUpdate(frame);
+                final long update = System.nanoTime() - updateStart;
+                mStats.updateTime.record(update);
+                mPendingUpdateNanos += update;
+            }
+            if (!mSpectrumListeners.isEmpty()) {
+                publishToListeners(frame);
             }
         }
 
@@ -148,6 +236,23 @@ public class PulseController {
         }
     };
 
+    private final PulseQualityGovernor.Callback mQualityCallback = new PulseQualityGovernor.Callback() {
+        @Override
+        public void onQualityTierChanged(int tier) {
+            mQualityTier = tier;
+            mStreamHandler.setCaptureRate(PulseQualityGovernor.getCaptureRate(tier));
+            applyQualityTier();
+        }
+    };
+
+    private final PulseTierCalibrator.Callback mCalibrationCallback =
+            new PulseTierCalibrator.Callback() {
+        @Override
+        public void onCalibratedTierChanged(int tier) {
+            applyQualityTier();
+        }
+    };
+
     private class SettingsObserver extends ContentObserver {
         public SettingsObserver(Handler handler) {
             super(handler);
@@ -160,6 +265,9 @@ public class PulseController {
             mContext.getContentResolver().registerContentObserver(
                     Settings.Secure.getUriFor(Settings.Secure.PULSE_RENDER_STYLE_URI), false, this,
                     UserHandle.USER_ALL);
+            mContext.getContentResolver().registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_ALBUM_ART_COLOR), false, this,
+                    UserHandle.USER_ALL);
         }
 
         @Override
@@ -172,12 +280,26 @@ public class PulseController {
                 if (mPulseObserver != null) {
                     loadRenderer();
                 }
+            } else if (uri.equals(Settings.Secure.getUriFor(PULSE_ALBUM_ART_COLOR))) {
+                updateAlbumArtColorEnabled();
+                if (mAlbumArtColorEnabled) {
+                    mMediaMonitor.notifyPlayingMetadata();
+                } else {
+                    mAlbumArtColorExtractor.cancel();
+                    setAlbumArtColor(Color.TRANSPARENT);
+                }
             }
         }
 
         void updateSettings() {
             updateEnabled();
             updateRenderMode();
+            updateAlbumArtColorEnabled();
+        }
+
+        void updateAlbumArtColorEnabled() {
+            mAlbumArtColorEnabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
+                    PULSE_ALBUM_ART_COLOR, 0, UserHandle.USER_CURRENT) == 1;
         }
 
         void updateEnabled() {
@@ -191,6 +313,16 @@ public class PulseController {
         }
     };
 
+    private final AlbumArtColorExtractor.Callback mAlbumArtColorCallback =
+            new AlbumArtColorExtractor.Callback() {
+        @Override
+        public void onAlbumArtColorExtracted(int color) {
+            if (mAlbumArtColorEnabled) {
+                setAlbumArtColor(color);
+            }
+        }
+    };
+
     public PulseController(Context context, Handler handler) {
         mContext = context;
         mHandler = handler;
@@ -207,6 +339,14 @@ public class PulseController {
             public void onPlayStateChanged(boolean playing) {
                 doLinkage();
             }
+
+            @Override
+            public void onPlayingMetadataChanged(MediaSession.Token token,
+                    MediaMetadata metadata) {
+                if (mAlbumArtColorEnabled && mAlbumArtColorExtractor != null) {
+                    mAlbumArtColorExtractor.request(token, metadata);
+                }
+            }
         };
         mMediaMonitor.setListening(true);
         IntentFilter filter = new IntentFilter();
@@ -216,7 +356,16 @@ public class PulseController {
         mContext.registerReceiver(mReceiver, filter);
         mSettingsObserver.register();
         mStreamHandler = new VisualizerStreamHandler(mContext, this, mStreamListener);
+        mStreamHandler.setOptimisticStart(mContext.getResources().getBoolean(
+                R.bool.config_pulseOptimisticStart));
+        mTierCalibrator = new PulseTierCalibrator(mContext, mCalibrationCallback);
+        mQualityGovernor = new PulseQualityGovernor(mContext, mQualityCallback);
+        mQualityGovernor.setListening(true);
         mAlbumArtColor = Color.TRANSPARENT;
+        mAlbumArtColorExtractor = new AlbumArtColorExtractor(mHandler, mAlbumArtColorCallback);
+        if (mAlbumArtColorEnabled) {
+            mMediaMonitor.notifyPlayingMetadata();
+        }
     }
 
     public void setPulseObserver(PulseObserver observer) {
@@ -241,12 +390,75 @@ public class PulseController {
         }
         mRenderer = getRenderer(mPulseObserver);
         mRenderer.setLeftInLandscape(mLeftInLandscape);
+        mRenderer.setStats(mStats);
+        updateCalibration();
+        mRenderer.setQualityTier(getEffectiveQualityTier());
+        mRenderer.setAlbumArtColor(mAlbumArtColor);
         if (isRendering) {
             mRenderer.onStreamAnalyzed(true);
             mStreamHandler.resume();
         }
     }
 
+    private void setAlbumArtColor(int color) {
+        mAlbumArtColor = color;
+        if (mRenderer != null) {
+            mRenderer.setAlbumArtColor(color);
+        }
+    }
+
+    public void addSpectrumListener(SpectrumListener listener) {
+        if (listener != null && !mSpectrumListeners.contains(listener)) {
+            mSpectrumListeners.add(listener);
+            if (mStreaming) {
+                listener.onSpectrumStreamChanged(true);
+            }
+        }
+    }
+
+    public void removeSpectrumListener(SpectrumListener listener) {
+        mSpectrumListeners.remove(listener);
+    }
+
+    private void notifyStreamingChanged(boolean streaming) {
+        if (mStreaming != streaming) {
+            mStreaming = streaming;
+            if (streaming) {
+                mOnsetDetector.reset();
+            }
+            for (int i = 0; i < mSpectrumListeners.size(); i++) {
+                mSpectrumListeners.get(i).onSpectrumStreamChanged(streaming);
+            }
+        }
+    }
+
+    private void publishToListeners(SpectrumFrame frame) {
+        if (mListenerFrame == null || mListenerFrame.getCapacity() < frame.getBinCount()) {
+            mListenerFrame = new SpectrumFrame(frame.getCapacity());
+        }
+        final SpectrumFrame published = mListenerFrame;
+        published.copyFrom(frame);
+        published.setReadable(true);
+        try {
+            for (int i = 0; i < mSpectrumListeners.size(); i++) {
+                mSpectrumListeners.get(i).onSpectrumUpdate(published);
+            }
+        } finally {
+            // anybody still holding it fails loudly instead of reading later data
+            published.setReadable(false);
+        }
+    }
+
+    private SpectrumFrame obtainFrame(int bins) {
+        mFrameIndex = (mFrameIndex + 1) % mFramePool.length;
+        SpectrumFrame frame = mFramePool[mFrameIndex];
+        if (frame == null || frame.getCapacity() < bins) {
+            frame = new SpectrumFrame(bins);
+            mFramePool[mFrameIndex] = frame;
+        }
+        return frame;
+    }
+
     public void setScreenPinningState(boolean enabled) {
         mScreenPinningEnabled = enabled;
     }
@@ -273,9 +485,36 @@ public class PulseController {
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
         if (mRenderer != null) {
             mRenderer.onSizeChanged(w, h, oldw, oldh);
+            updateCalibration();
+        }
+    }
+
+    private void updateCalibration() {
+        mTierCalibrator.setConfiguration(mRenderer.getClass().getSimpleName(),
+                mPulseObserver.getWidth(), mPulseObserver.getHeight());
+    }
+
+    /**
+     * Governor tier protects battery and thermals, calibrated tier keeps
+     * drawing within budget. The stricter one wins
+     */
+    private int getEffectiveQualityTier() {
+        return Math.max(mQualityTier, mTierCalibrator.getTier());
+    }
+
+    private void applyQualityTier() {
+        if (mRenderer != null) {
+            mRenderer.setQualityTier(getEffectiveQualityTier());
         }
     }
 
+    /**
+     * @return current quality tier as chosen by PulseQualityGovernor
+     */
+    public int getQualityTier() {
+        return mQualityTier;
+    }
+
     /**
      * @return true if Pulse is enabled, false if not
      */
@@ -292,6 +531,17 @@ public class PulseController {
         return mLinked && mStreamHandler.isValidStream() && mRenderer != null;
     }
 
+    /**
+     * Rendering ahead of stream validation in optimistic mode. Bar elements
+     * stay as they are until the stream is confirmed
+     *
+     * @return true if drawing provisionally, false if not
+     */
+    public boolean isProvisional() {
+        return mLinked && mProvisional && mStreamHandler.isProvisionalStream()
+                && mRenderer != null;
+    }
+
     public void turnOnPulse() {
         if (isPulseEnabled() && shouldDrawPulse()) {
             mStreamHandler.resume(); // let bytes hit visualizer
@@ -299,17 +549,77 @@ public class PulseController {
     }
 
     public void onDraw(Canvas canvas) {
-        if (isPulseEnabled() && shouldDrawPulse()) {
-            mRenderer.draw(canvas);
+        if (isPulseEnabled()) {
+            if (shouldDrawPulse() || isProvisional()) {
+                drawRenderer(canvas);
+            }
+        }
+    }
+
+    private void setProvisional(boolean provisional) {
+        mProvisional = provisional;
+        if (mPulseObserver != null) {
+            mPulseObserver.setPulseAlpha(provisional ? PROVISIONAL_ALPHA : 1f);
         }
     }
 
+    private void drawRenderer(Canvas canvas) {
+        final long start = System.nanoTime();
+        mRenderer.draw(canvas);
+        final long elapsed = System.nanoTime() - start;
+        mStats.drawTime.record(elapsed);
+        mStats.framesRendered.incrementAndGet();
+        // renderers may do the heavy lifting per capture, software surfaces
+        // for one, so a frame costs its draw plus the updates leading up to it
+        final long cost = elapsed + mPendingUpdateNanos;
+        mPendingUpdateNanos = 0;
+        // only what we measure at the calibrated tier says anything about it
+        if (mTierCalibrator.getTier() >= mQualityTier) {
+            mTierCalibrator.onFrameDrawn(cost);
+        }
+    }
+
+    public PulseStats getStats() {
+        return mStats;
+    }
+
+    public void dump(PrintWriter pw, String[] args) {
+        dump(pw);
+        if (args != null) {
+            for (String arg : args) {
+                if (PulseBenchmark.DUMP_ARG.equals(arg)) {
+                    PulseBenchmark.run(pw);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("  PulseController {");
+        pw.println("    enabled=" + isPulseEnabled()
+                + " linked=" + mLinked
+                + " provisional=" + mProvisional
+                + " drawing=" + shouldDrawPulse());
+        pw.println("    renderer=" + (mRenderer == null ? "null"
+                : mRenderer.getClass().getSimpleName())
+                + " tier=" + PulseQualityGovernor.tierToString(mQualityTier)
+                + " calibratedTier=" + PulseQualityGovernor.tierToString(
+                        mTierCalibrator.getTier())
+                + " spectrumListeners=" + mSpectrumListeners.size());
+        mStats.dump(pw);
+        pw.println("  }");
+    }
+
     public void doUnlinkVisualizer() {
         if (mStreamHandler != null) {
             if (mLinked) {
                 mStreamHandler.unlink();
                 setVisualizerLocked(false);
                 mLinked = false;
+                mPendingUpdateNanos = 0;
+                setProvisional(false);
+                notifyStreamingChanged(false);
                 if (mRenderer != null) {
                     mRenderer.onVisualizerLinkChanged(false);
                 }
@@ -410,6 +720,9 @@ public class PulseController {
                 mStreamHandler.unlink();
                 setVisualizerLocked(false);
                 mLinked = false;
+                mPendingUpdateNanos = 0;
+                setProvisional(false);
+                notifyStreamingChanged(false);
             }
         }
     }
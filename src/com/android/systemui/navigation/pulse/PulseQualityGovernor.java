@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Watch battery level and battery temperature and pick a Pulse quality
+ * tier. Lower tiers trade capture rate, frame rate, bar count and effects
+ * for power. Tiers step back up with some hysteresis once things cool off
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+public class PulseQualityGovernor {
+    public interface Callback {
+        public void onQualityTierChanged(int tier);
+    }
+
+    private static final String TAG = PulseQualityGovernor.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int TIER_FULL = 0;
+    public static final int TIER_REDUCED = 1;
+    public static final int TIER_LOW = 2;
+    public static final int TIER_MINIMAL = 3;
+
+    // per tier render parameters, indexed by tier
+    // capture rate in millihertz, renderers interpolate between captures
+    private static final int[] CAPTURE_RATE = { 12000, 10000, 8000, 6000 };
+    private static final int[] RENDER_FPS = { 60, 40, 30, 20 };
+    private static final int[] BAR_REDUCTION = { 1, 1, 2, 4 };
+    private static final boolean[] ANTI_ALIAS = { true, true, false, false };
+    private static final boolean[] LAVALAMP = { true, true, false, false };
+    private static final boolean[] FADE_SURFACE = { true, true, true, false };
+
+    // battery level (percent) at or below which a tier kicks in when unplugged
+    private static final int[] LEVEL_THRESHOLDS = { 100, 50, 30, 15 };
+    // battery temperature (tenths of a degree C) at or above which a tier kicks in
+    private static final int[] TEMP_THRESHOLDS = { Integer.MIN_VALUE, 400, 420, 450 };
+    // how far conditions must improve past a threshold before stepping back up
+    private static final int LEVEL_HYSTERESIS = 5;
+    private static final int TEMP_HYSTERESIS = 20;
+
+    private Context mContext;
+    private Callback mCallback;
+    private int mBatteryTier = TIER_FULL;
+    private int mThermalTier = TIER_FULL;
+    private int mTier = TIER_FULL;
+    private boolean mListening;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                onBatteryChanged(intent);
+            }
+        }
+    };
+
+    public PulseQualityGovernor(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+    }
+
+    public void setListening(boolean listening) {
+        if (mListening == listening) {
+            return;
+        }
+        mListening = listening;
+        if (listening) {
+            // sticky, so we get current state right away
+            Intent sticky = mContext.registerReceiver(mReceiver,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (sticky != null) {
+                onBatteryChanged(sticky);
+            }
+        } else {
+            mContext.unregisterReceiver(mReceiver);
+        }
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 100);
+        final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        final int percent = scale > 0 ? level * 100 / scale : 100;
+        final boolean plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        final int temp = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+
+        mBatteryTier = plugged ? TIER_FULL : computeBatteryTier(percent, mBatteryTier);
+        mThermalTier = computeThermalTier(temp, mThermalTier);
+        final int tier = Math.max(mBatteryTier, mThermalTier);
+        if (DEBUG) {
+            Log.d(TAG, "level=" + percent + " plugged=" + plugged + " temp=" + temp
+                    + " tier=" + tier);
+        }
+        if (tier != mTier) {
+            mTier = tier;
+            if (mCallback != null) {
+                mCallback.onQualityTierChanged(tier);
+            }
+        }
+    }
+
+    private static int computeBatteryTier(int percent, int current) {
+        int tier = TIER_FULL;
+        for (int i = TIER_MINIMAL; i > TIER_FULL; i--) {
+            // stay in a lower tier until we climb clear of its threshold
+            final int threshold = i <= current
+                    ? LEVEL_THRESHOLDS[i] + LEVEL_HYSTERESIS
+                    : LEVEL_THRESHOLDS[i];
+            if (percent <= threshold) {
+                tier = i;
+                break;
+            }
+        }
+        return tier;
+    }
+
+    private static int computeThermalTier(int temp, int current) {
+        int tier = TIER_FULL;
+        for (int i = TIER_MINIMAL; i > TIER_FULL; i--) {
+            final int threshold = i <= current
+                    ? TEMP_THRESHOLDS[i] - TEMP_HYSTERESIS
+                    : TEMP_THRESHOLDS[i];
+            if (temp >= threshold) {
+                tier = i;
+                break;
+            }
+        }
+        return tier;
+    }
+
+    private static int validateTier(int tier) {
+        return Math.max(TIER_FULL, Math.min(TIER_MINIMAL, tier));
+    }
+
+    /**
+     * @return Visualizer capture rate to request, in millihertz
+     */
+    public static int getCaptureRate(int tier) {
+        return CAPTURE_RATE[validateTier(tier)];
+    }
+
+    public static int getRenderFps(int tier) {
+        return RENDER_FPS[validateTier(tier)];
+    }
+
+    /**
+     * @return divisor applied to a renderer's bar count
+     */
+    public static int getBarReduction(int tier) {
+        return BAR_REDUCTION[validateTier(tier)];
+    }
+
+    public static boolean isAntiAliasAllowed(int tier) {
+        return ANTI_ALIAS[validateTier(tier)];
+    }
+
+    public static boolean isLavaLampAllowed(int tier) {
+        return LAVALAMP[validateTier(tier)];
+    }
+
+    public static boolean isFadeSurfaceAllowed(int tier) {
+        return FADE_SURFACE[validateTier(tier)];
+    }
+
+    public static String tierToString(int tier) {
+        switch (tier) {
+            case TIER_FULL:
+                return "FULL";
+            case TIER_REDUCED:
+                return "REDUCED";
+            case TIER_LOW:
+                return "LOW";
+            case TIER_MINIMAL:
+                return "MINIMAL";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Pulse performance counters. Visualizer delivers captures through a
+ * Handler on the looper that linked it, the UI thread, where rendering
+ * happens too. Dumps read from a binder thread though, so everything here
+ * is lock free. Nothing is aggregated until somebody dumps
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import com.android.systemui.navigation.utils.TimingHistogram;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PulseStats {
+    // captures handed to us by Visualizer
+    public final AtomicLong framesCaptured = new AtomicLong();
+    // captures that reached renderers
+    public final AtomicLong framesDispatched = new AtomicLong();
+    // captures dropped while paused or unvalidated
+    public final AtomicLong framesDropped = new AtomicLong();
+    // invalidates deferred by renderer frame rate throttling
+    public final AtomicLong framesThrottled = new AtomicLong();
+    public final AtomicLong framesRendered = new AtomicLong();
+    // decoded frames with no perceptible change
+    public final AtomicLong framesStill = new AtomicLong();
+    public final AtomicLong onsets = new AtomicLong();
+
+    public final AtomicLong streamsValid = new AtomicLong();
+    public final AtomicLong streamsInvalid = new AtomicLong();
+    public final AtomicLong streamsProvisional = new AtomicLong();
+    public final AtomicLong links = new AtomicLong();
+    public final AtomicLong unlinks = new AtomicLong();
+
+    public final TimingHistogram decodeTime = new TimingHistogram();
+    // renderer work per capture, outside of draw
+    public final TimingHistogram updateTime = new TimingHistogram();
+    public final TimingHistogram drawTime = new TimingHistogram();
+
+    public void dump(PrintWriter pw) {
+        pw.println("    PulseStats {");
+        pw.println("      frames: captured=" + framesCaptured.get()
+                + " dispatched=" + framesDispatched.get()
+                + " dropped=" + framesDropped.get()
+                + " throttled=" + framesThrottled.get()
+                + " rendered=" + framesRendered.get()
+                + " still=" + framesStill.get()
+                + " onsets=" + onsets.get());
+        pw.println("      streams: valid=" + streamsValid.get()
+                + " invalid=" + streamsInvalid.get()
+                + " provisional=" + streamsProvisional.get());
+        pw.println("      visualizer: links=" + links.get() + " unlinks=" + unlinks.get());
+        decodeTime.dump(pw, "      ", "decode");
+        updateTime.dump(pw, "      ", "update");
+        drawTime.dump(pw, "      ", "draw");
+        pw.println("    }");
+    }
+}
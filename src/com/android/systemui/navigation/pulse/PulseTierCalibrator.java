@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Pick a quality tier from what drawing actually costs on this device.
+ * Frame cost, the draw plus any renderer work done on captures since the
+ * last one, is collected over a rolling window of the latest frames; the
+ * tier steps down as soon as the window runs over budget and back up after
+ * sustained headroom. The result is persisted per renderer, bar size and
+ * density so the next session starts at the right level
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Arrays;
+
+public class PulseTierCalibrator {
+    public interface Callback {
+        public void onCalibratedTierChanged(int tier);
+    }
+
+    private static final String TAG = PulseTierCalibrator.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final String PREFS_NAME = "pulse_tier_calibration";
+    private static final int WINDOW_SIZE = 60;
+    // judge the window by its 90th percentile so one slow frame doesn't count
+    private static final int PERCENTILE_INDEX = WINDOW_SIZE * 9 / 10;
+    // share of a 60fps frame Pulse may spend on its own work
+    private static final long DRAW_BUDGET_NANOS = 4 * 1000 * 1000;
+    // step back up after this many frames in a row under the headroom mark
+    private static final int HEADROOM_FRAMES = 5 * WINDOW_SIZE;
+    private static final long HEADROOM_NANOS = DRAW_BUDGET_NANOS / 2;
+
+    private Context mContext;
+    private Callback mCallback;
+    private SharedPreferences mPrefs;
+    // ring of the latest frame costs, and the same values kept in order
+    private final long[] mWindow = new long[WINDOW_SIZE];
+    private final long[] mSorted = new long[WINDOW_SIZE];
+    private int mIndex;
+    private int mCount;
+    private int mHeadroomFrames;
+    private int mTier = PulseQualityGovernor.TIER_FULL;
+    private String mKey;
+
+    public PulseTierCalibrator(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+    }
+
+    /**
+     * Switch to the calibration of a renderer at a given size, restoring
+     * whatever tier was saved for it
+     */
+    public void setConfiguration(String renderer, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final String key = renderer + "_" + width + "x" + height + "_"
+                + mContext.getResources().getDisplayMetrics().densityDpi;
+        if (key.equals(mKey)) {
+            return;
+        }
+        mKey = key;
+        resetWindow();
+        setTier(getPrefs().getInt(key, PulseQualityGovernor.TIER_FULL), false);
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    public void onFrameDrawn(long nanos) {
+        if (mKey == null) {
+            return;
+        }
+        if (mCount == WINDOW_SIZE) {
+            removeSorted(mWindow[mIndex]);
+        }
+        insertSorted(nanos);
+        mWindow[mIndex] = nanos;
+        mIndex = (mIndex + 1) % WINDOW_SIZE;
+        if (mCount < WINDOW_SIZE) {
+            return;
+        }
+        final long cost = mSorted[PERCENTILE_INDEX];
+        if (cost > DRAW_BUDGET_NANOS) {
+            if (mTier < PulseQualityGovernor.TIER_MINIMAL) {
+                stepTier(mTier + 1, cost);
+            } else {
+                mHeadroomFrames = 0;
+            }
+        } else if (cost < HEADROOM_NANOS) {
+            if (++mHeadroomFrames >= HEADROOM_FRAMES) {
+                mHeadroomFrames = 0;
+                if (mTier > PulseQualityGovernor.TIER_FULL) {
+                    stepTier(mTier - 1, cost);
+                }
+            }
+        } else {
+            mHeadroomFrames = 0;
+        }
+    }
+
+    private void stepTier(int tier, long cost) {
+        if (DEBUG) {
+            Log.d(TAG, mKey + " p90=" + (cost / 1000) + "us tier=" + mTier + "->" + tier);
+        }
+        setTier(tier, true);
+        // frames of the old tier say nothing about the new one
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        mIndex = 0;
+        mCount = 0;
+        mHeadroomFrames = 0;
+    }
+
+    // keep mSorted in order as values come and go, no sort per frame
+    private void insertSorted(long value) {
+        int i = mCount++;
+        while (i > 0 && mSorted[i - 1] > value) {
+            mSorted[i] = mSorted[i - 1];
+            i--;
+        }
+        mSorted[i] = value;
+    }
+
+    private void removeSorted(long value) {
+        final int i = Arrays.binarySearch(mSorted, 0, mCount, value);
+        System.arraycopy(mSorted, i + 1, mSorted, i, mCount - i - 1);
+        mCount--;
+    }
+
+    private void setTier(int tier, boolean persist) {
+        if (persist) {
+            getPrefs().edit().putInt(mKey, tier).apply();
+        }
+        if (mTier != tier) {
+            mTier = tier;
+            if (mCallback != null) {
+                mCallback.onCalibratedTierChanged(tier);
+            }
+        }
+    }
+
+    private SharedPreferences getPrefs() {
+        if (mPrefs == null) {
+            mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        return mPrefs;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Overlay stacked under the navbar buttons that Pulse draws into. It sits on
+ * its own hardware layer so Pulse frames only invalidate this view and the
+ * button and logo display lists stay cached while music plays
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.View;
+import android.widget.FrameLayout;
+
+public class PulseView extends View {
+    private PulseController mPulse;
+
+    public PulseView(Context context) {
+        super(context);
+        setLayoutParams(new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT,
+                FrameLayout.LayoutParams.MATCH_PARENT));
+        setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+        setClickable(false);
+        setFocusable(false);
+    }
+
+    public void setPulseController(PulseController pulse) {
+        mPulse = pulse;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mPulse != null) {
+            mPulse.onSizeChanged(w, h, oldw, oldh);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mPulse != null) {
+            mPulse.onDraw(canvas);
+        }
+    }
+}
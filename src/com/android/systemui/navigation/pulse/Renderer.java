@@ -25,15 +25,21 @@ import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.os.Handler;
+import android.os.SystemClock;
 
 public abstract class Renderer implements VisualizerStreamHandler.Listener {
     protected Context mContext;
     protected Handler mHandler;
     protected PulseObserver mCallback;
+    protected PulseStats mStats;
 
-    private static final long ANIM_FPS_MAX = 40;
-    private static final long ANIM_FPS_TO_MILLIS = 1000 / ANIM_FPS_MAX;
+    protected int mQualityTier = PulseQualityGovernor.TIER_FULL;
+    // Color.TRANSPARENT when not coloring from album art
+    protected int mAlbumArtColor = Color.TRANSPARENT;
+
+    private long mAnimFpsToMillis = 1000 / PulseQualityGovernor.getRenderFps(mQualityTier);
     private long mCurrentTime;
     private long mRenderCounter;
     private long mCurrentCounter;
@@ -42,26 +48,74 @@ public abstract class Renderer implements VisualizerStreamHandler.Listener {
         mContext = context;
         mHandler = handler;
         mCallback = callback;
-        mRenderCounter = System.currentTimeMillis();
+        mRenderCounter = SystemClock.uptimeMillis();
     }
 
-    protected final void postInvalidate() {
-        mCurrentTime = System.currentTimeMillis();
+    /**
+     * Request the next display frame. Never drops the request, defers it
+     * to honor the frame rate of the current quality tier
+     */
+    protected final void postInvalidateOnAnimation() {
+        mCurrentTime = SystemClock.uptimeMillis();
         mCurrentCounter = mCurrentTime - mRenderCounter;
-        if (mCurrentCounter >= ANIM_FPS_TO_MILLIS) {
+        if (mCurrentCounter >= mAnimFpsToMillis) {
             mRenderCounter = mCurrentTime;
-            mCallback.postInvalidate();
+            mCallback.postInvalidateOnAnimation();
+        } else {
+            mCallback.postInvalidateDelayed(mAnimFpsToMillis - mCurrentCounter);
+            if (mStats != null) {
+                mStats.framesThrottled.incrementAndGet();
+            }
         }
     }
 
     public abstract void draw(Canvas canvas);
 
+    public final void setQualityTier(int tier) {
+        if (mQualityTier != tier) {
+            mQualityTier = tier;
+            mAnimFpsToMillis = 1000 / PulseQualityGovernor.getRenderFps(tier);
+            onQualityTierChanged(tier);
+        }
+    }
+
+    public final void setStats(PulseStats stats) {
+        mStats = stats;
+    }
+
+    public final int getQualityTier() {
+        return mQualityTier;
+    }
+
+    // scale back or restore per renderer work, see PulseQualityGovernor
+    protected void onQualityTierChanged(int tier) {}
+
+    public final void setAlbumArtColor(int color) {
+        if (mAlbumArtColor != color) {
+            mAlbumArtColor = color;
+            onAlbumArtColorChanged(color);
+        }
+    }
+
+    protected final boolean isAlbumArtColorActive() {
+        return mAlbumArtColor != Color.TRANSPARENT;
+    }
+
+    // album art color takes precedence over user color and lavalamp
+    protected void onAlbumArtColorChanged(int color) {}
+
     @Override
     public void onWaveFormUpdate(byte[] bytes) {}
 
+    @Override
+    public void onStreamProvisional() {}
+
     @Override
     public void onFFTUpdate(byte[] fft) {}
 
+    // decoded capture shared with any other Pulse consumers. Read only
+    public void onSpectrumUpdate(SpectrumFrame frame) {}
+
     public void onVisualizerLinkChanged(boolean linked) {}
 
     public void destroy() {}
@@ -22,7 +22,6 @@
 
 package com.android.systemui.navigation.pulse;
 
-import android.animation.ValueAnimator;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -31,6 +30,7 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 
@@ -38,35 +38,44 @@ import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
 import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
+    private static final int MAX_BARS = 32;
+    // on an onset, bars jump this much taller and settle back over BEAT_DECAY_MILLIS
+    private static final float BEAT_BOOST = 0.2f;
+    private static final long BEAT_DECAY_MILLIS = 150;
+
     private Paint mPaint;
-    private ValueAnimator[] mValueAnimators;
+    private BarInterpolator mInterpolator;
     private float[] mFFTPoints;
     private int mColor;
 
-    private byte rfk, ifk;
     private int dbValue;
-    private float magnitude;
-    private float mDbFuzzFactor;
-    private boolean mVertical;
+    private int mDbFuzzFactor;
     private boolean mLeftInLandscape;
-    private int mWidth, mHeight;
+    private BarGeometry mGeometry;
+    private long mBeatTime;
+    private int mBarCount = MAX_BARS;
+    private int mBarReduction = 1;
 
     private boolean mIsValidStream;
     private boolean mLavaLampEnabled;
     private CMRendererObserver mObserver;
     private ColorAnimator mLavaLamp;
+    private ColorAnimator mColorTransition;
 
     public SolidLineRenderer(Context context, Handler handler, PulseObserver callback) {
         super(context, handler, callback);
         mColor = Color.TRANSPARENT;
         mLavaLamp = new ColorAnimator();
         mLavaLamp.setColorAnimatorListener(this);
+        mColorTransition = new ColorAnimator();
+        mColorTransition.setColorAnimatorListener(this);
         mPaint = new Paint();
         mPaint.setAntiAlias(true);
         mPaint.setColor(mColor);
-        mDbFuzzFactor = 5f;
-        mFFTPoints = new float[128];
-        loadValueAnimators();
+        mDbFuzzFactor = 5;
+        mFFTPoints = new float[MAX_BARS * 4];
+        mInterpolator = new BarInterpolator();
+        mInterpolator.reset(mBarCount, 0);
         mObserver = new CMRendererObserver(handler);
         mObserver.updateSettings();
     }
@@ -79,116 +88,125 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
         }
     }
 
-    private void loadValueAnimators() {
-        if (mValueAnimators != null) {
-            for (int i = 0; i < 32; i++) {
-                mValueAnimators[i].cancel();
-            }
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        final int width = mCallback.getWidth();
+        final int height = mCallback.getHeight();
+        if (width > 0 && height > 0) {
+            // skip the packed DC/Nyquist pair
+            mGeometry = BarGeometry.obtain(BarGeometry.LAYOUT_EVEN, width, height, mBarCount,
+                    0, mBarReduction, 1, mLeftInLandscape, false);
+            mGeometry.copyPointsTo(mFFTPoints);
+            mPaint.setStrokeWidth(mGeometry.getStrokeWidth());
         }
-        mValueAnimators = new ValueAnimator[32];
-        final boolean isVertical = mVertical;
-        for (int i = 0; i < 32; i++) {
-            final int j;
-            if (isVertical) {
-                j = i * 4;
-            } else {
-                j = i * 4 + 1;
+    }
+
+    @Override
+    public void onStreamAnalyzed(boolean isValid) {
+        mIsValidStream = isValid;
+        if (isValid) {
+            onSizeChanged(0, 0, 0, 0);
+            if (isLavaLampActive()) {
+                mLavaLamp.start();
             }
-            mValueAnimators[i] = new ValueAnimator();
-            mValueAnimators[i].setDuration(128);
-            mValueAnimators[i].addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    mFFTPoints[j] = (float) animation.getAnimatedValue();
-                    postInvalidate();
-                }
-            });
         }
     }
 
-    private void setPortraitPoints() {
-        float barUnit = mWidth / 32f;
-        float barWidth = barUnit * 8f / 9f;
-        barUnit = barWidth + (barUnit - barWidth) * 32f / 31f;
-        mPaint.setStrokeWidth(barWidth);
-        for (int i = 0; i < 32; i++) {
-            mFFTPoints[i * 4] = mFFTPoints[i * 4 + 2] = i * barUnit + (barWidth / 2);
-            mFFTPoints[i * 4 + 1] = mHeight;
-            mFFTPoints[i * 4 + 3] = mHeight;
+    @Override
+    protected void onQualityTierChanged(int tier) {
+        mPaint.setAntiAlias(PulseQualityGovernor.isAntiAliasAllowed(tier));
+        final int reduction = PulseQualityGovernor.getBarReduction(tier);
+        if (mBarReduction != reduction) {
+            mBarReduction = reduction;
+            mBarCount = MAX_BARS / reduction;
+            mInterpolator.reset(mBarCount, 0);
+            mGeometry = null;
+            onSizeChanged(0, 0, 0, 0);
+        }
+        if (isLavaLampActive() && mIsValidStream) {
+            mLavaLamp.start();
+        } else {
+            mLavaLamp.stop();
         }
     }
 
-    private void setVerticalPoints() {
-        float barUnit = mHeight / 32f;
-        float barHeight = barUnit * 8f / 9f;
-        barUnit = barHeight + (barUnit - barHeight) * 32f / 31f;
-        mPaint.setStrokeWidth(barHeight);
-        for (int i = 0; i < 32; i++) {
-            mFFTPoints[i * 4 + 1] = mFFTPoints[i * 4 + 3] = i * barUnit + (barHeight / 2);
-            mFFTPoints[i * 4] = mLeftInLandscape ? 0 : mWidth;
-            mFFTPoints[i * 4 + 2] = mLeftInLandscape ? 0 : mWidth;
-        }
+    private boolean isLavaLampActive() {
+        return mLavaLampEnabled && PulseQualityGovernor.isLavaLampAllowed(mQualityTier)
+                && !isAlbumArtColorActive();
     }
 
-    @Override
-    public void onSizeChanged(int w, int h, int oldw, int oldh) {
-        if (mCallback.getWidth() > 0 && mCallback.getHeight() > 0) {
-            mWidth = mCallback.getWidth();
-            mHeight = mCallback.getHeight();
-            mVertical = mHeight > mWidth;
-            loadValueAnimators();
-            if (mVertical) {
-                setVerticalPoints();
-            } else {
-                setPortraitPoints();
-            }
-        }
+    private int getBaseColor() {
+        return isAlbumArtColorActive() ? mAlbumArtColor : mColor;
     }
 
     @Override
-    public void onStreamAnalyzed(boolean isValid) {
-        mIsValidStream = isValid;
-        if (isValid) {
-            onSizeChanged(0, 0, 0, 0);
-            if (mLavaLampEnabled) {
-                mLavaLamp.start();
-            }
+    protected void onAlbumArtColorChanged(int color) {
+        final int fromColor = mPaint.getColor();
+        if (isLavaLampActive() && mIsValidStream) {
+            mColorTransition.stop();
+            mLavaLamp.start();
+        } else {
+            mLavaLamp.stop();
+            mColorTransition.transition(fromColor, getBaseColor());
         }
     }
 
     @Override
-    public void onFFTUpdate(byte[] fft) {
-        for (int i = 0; i < 32; i++) {
-            mValueAnimators[i].cancel();
-            rfk = fft[i * 2 + 2];
-            ifk = fft[i * 2 + 3];
-            magnitude = rfk * rfk + ifk * ifk;
-            dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-            if (mVertical) {
-                if (mLeftInLandscape) {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            dbValue * mDbFuzzFactor);
-                } else {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            mFFTPoints[2] - (dbValue * mDbFuzzFactor));
-                }
-            } else {
-                mValueAnimators[i].setFloatValues(mFFTPoints[i * 4 + 1],
-                        mFFTPoints[3] - (dbValue * mDbFuzzFactor));
-            }
-            mValueAnimators[i].start();
+    public void onSpectrumUpdate(SpectrumFrame frame) {
+        final BarGeometry geometry = mGeometry;
+        if (geometry == null) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (frame.isOnset()) {
+            mBeatTime = now;
+        } else if (frame.isStill()) {
+            // nothing new, let the current motion finish without a redraw
+            mInterpolator.skipFrame(frame.getTimestamp());
+            return;
+        }
+        mInterpolator.beginFrame(frame.getTimestamp(), now);
+        for (int i = 0; i < geometry.getBarCount(); i++) {
+            dbValue = frame.getDb(geometry.getBin(i));
+            mInterpolator.setTarget(i, dbValue * mDbFuzzFactor);
         }
+        postInvalidateOnAnimation();
     }
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawLines(mFFTPoints, mPaint);
+        final BarGeometry geometry = mGeometry;
+        if (geometry == null) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        final int fraction = mInterpolator.getFraction(now);
+        final float beat = getBeatScale(now);
+        final int count = geometry.getBarCount();
+        for (int i = 0; i < count; i++) {
+            // heights stay integer until here
+            mFFTPoints[geometry.getMagnitudeIndex(i)] = geometry.getMagnitudeCoordinate(
+                    BarInterpolator.toPixels(mInterpolator.getValue(i, fraction)) * beat);
+        }
+        canvas.drawLines(mFFTPoints, 0, count * 4, mPaint);
+        if (mInterpolator.isAnimating(now) || beat > 1f) {
+            postInvalidateOnAnimation();
+        }
+    }
+
+    private float getBeatScale(long now) {
+        final long elapsed = now - mBeatTime;
+        if (mBeatTime == 0 || elapsed >= BEAT_DECAY_MILLIS) {
+            return 1f;
+        }
+        return 1f + BEAT_BOOST * (1f - elapsed / (float) BEAT_DECAY_MILLIS);
     }
 
     @Override
     public void destroy() {
         mContext.getContentResolver().unregisterContentObserver(mObserver);
         mLavaLamp.stop();
+        mColorTransition.stop();
     }
 
     @Override
@@ -209,7 +227,7 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
 
     @Override
     public void onStopAnimation(ColorAnimator colorAnimator, int lastColor) {
-        mPaint.setColor(mColor);
+        mPaint.setColor(getBaseColor());
     }
 
     private class CMRendererObserver extends ContentObserver {
@@ -248,14 +266,14 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
                     Settings.Secure.FLING_PULSE_COLOR,
                     Color.WHITE,
                     UserHandle.USER_CURRENT);
-            if (!mLavaLampEnabled) {
-                mPaint.setColor(mColor);
+            if (!isLavaLampActive()) {
+                mPaint.setColor(getBaseColor());
             }
             int lavaLampSpeed = Settings.Secure.getIntForUser(resolver,
                     Settings.Secure.PULSE_LAVALAMP_SOLID_SPEED, 10 * 1000,
                     UserHandle.USER_CURRENT);
             mLavaLamp.setAnimationTime(lavaLampSpeed);
-            if (mLavaLampEnabled && mIsValidStream) {
+            if (isLavaLampActive() && mIsValidStream) {
                 mLavaLamp.start();
             } else {
                 mLavaLamp.stop();
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One decoded Visualizer FFT capture. Bin n holds 10 * log10(r * r + i * i)
+ * of byte pair n, where pair 0 is the packed DC/Nyquist pair, exactly as
+ * the renderers always computed it. OnsetDetector adds spectral flux, onset
+ * and still state before the frame is published.
+ *
+ * Frames are not immutable, PulseController recycles a pool of
+ * FRAME_POOL_SIZE. The renderer and OnsetDetector read pooled frames and
+ * may hold one until FRAME_POOL_SIZE - 1 newer frames are published.
+ * SpectrumListeners get a separate copy that is valid only during
+ * onSpectrumUpdate(); reading it afterwards throws. Listeners that need
+ * the data longer keep a copy()
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public final class SpectrumFrame {
+    // a pair of signed bytes can't produce a magnitude above this
+    static final int MAX_MAGNITUDE = 128 * 128 * 2;
+    // frames kept alive at once, enough for a consumer to hold the previous one
+    static final int FRAME_POOL_SIZE = 4;
+
+    private static byte[] sDbTable;
+
+    private final byte[] mDb;
+    private int mBinCount;
+    private long mTimestamp;
+    private long mSequence;
+    private int mFlux;
+    private boolean mOnset;
+    private boolean mStill;
+    // false once a listener frame's callback returned
+    private boolean mReadable = true;
+
+    SpectrumFrame(int capacity) {
+        mDb = new byte[capacity];
+    }
+
+    /**
+     * @return a frame of the same data that stays valid, for listeners
+     *         that keep frames past their callback
+     */
+    public SpectrumFrame copy() {
+        checkReadable();
+        final SpectrumFrame frame = new SpectrumFrame(mBinCount);
+        frame.copyFrom(this);
+        return frame;
+    }
+
+    void copyFrom(SpectrumFrame other) {
+        System.arraycopy(other.mDb, 0, mDb, 0, other.mBinCount);
+        mBinCount = other.mBinCount;
+        mTimestamp = other.mTimestamp;
+        mSequence = other.mSequence;
+        mFlux = other.mFlux;
+        mOnset = other.mOnset;
+        mStill = other.mStill;
+    }
+
+    void setReadable(boolean readable) {
+        mReadable = readable;
+    }
+
+    private void checkReadable() {
+        if (!mReadable) {
+            throw new IllegalStateException("SpectrumFrame read after its callback,"
+                    + " keep a copy() instead");
+        }
+    }
+
+    /**
+     * Decode a raw capture into this frame
+     *
+     * @param fft - Visualizer FFT bytes
+     * @param timestamp - uptime millis of the capture
+     * @param sequence - monotonically increasing frame number
+     */
+    void decode(byte[] fft, long timestamp, long sequence) {
+        final byte[] table = getDbTable();
+        final int bins = Math.min(fft.length / 2, mDb.length);
+        for (int i = 0; i < bins; i++) {
+            final int r = fft[i * 2];
+            final int im = fft[i * 2 + 1];
+            mDb[i] = table[r * r + im * im];
+        }
+        mBinCount = bins;
+        mTimestamp = timestamp;
+        mSequence = sequence;
+    }
+
+    void setNovelty(int flux, boolean onset, boolean still) {
+        mFlux = flux;
+        mOnset = onset;
+        mStill = still;
+    }
+
+    int getCapacity() {
+        return mDb.length;
+    }
+
+    public int getBinCount() {
+        checkReadable();
+        return mBinCount;
+    }
+
+    /**
+     * @param bin - byte pair index of the raw capture
+     * @return integer decibel value of the bin, 0 for silence
+     */
+    public int getDb(int bin) {
+        checkReadable();
+        return mDb[bin];
+    }
+
+    public long getTimestamp() {
+        checkReadable();
+        return mTimestamp;
+    }
+
+    public long getSequence() {
+        checkReadable();
+        return mSequence;
+    }
+
+    /**
+     * @return sum of per bin dB increases since the previous frame
+     */
+    public int getFlux() {
+        checkReadable();
+        return mFlux;
+    }
+
+    /**
+     * @return true if this frame starts a beat or other sharp attack
+     */
+    public boolean isOnset() {
+        checkReadable();
+        return mOnset;
+    }
+
+    /**
+     * @return true if no bin changed perceptibly, nothing new to draw
+     */
+    public boolean isStill() {
+        checkReadable();
+        return mStill;
+    }
+
+    /**
+     * Reference conversion, matches what renderers computed per frame
+     */
+    static int dbForMagnitude(int magnitude) {
+        return magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
+    }
+
+    private static byte[] getDbTable() {
+        if (sDbTable == null) {
+            final byte[] table = new byte[MAX_MAGNITUDE + 1];
+            for (int i = 0; i <= MAX_MAGNITUDE; i++) {
+                table[i] = (byte) dbForMagnitude(i);
+            }
+            sDbTable = table;
+        }
+        return sDbTable;
+    }
+}
@@ -32,6 +32,9 @@ public class VisualizerStreamHandler {
     public interface Listener {
         public void onStreamAnalyzed(boolean isValid);
 
+        // first non-empty frame seen in optimistic mode, validation still running
+        public void onStreamProvisional();
+
         public void onFFTUpdate(byte[] bytes);
 
         public void onWaveFormUpdate(byte[] bytes);
@@ -42,12 +45,16 @@ public class VisualizerStreamHandler {
 
     protected static final int MSG_STREAM_VALID = 55;
     protected static final int MSG_STREAM_INVALID = 56;
+    protected static final int MSG_STREAM_PROVISIONAL = 57;
     // we have 1500 millis to get three consecutive valid frames
     protected static final int VALIDATION_TIME_MILLIS = 1500;
     protected static final int VALID_BYTES_THRESHOLD = 3;
 
     protected Visualizer mVisualizer;
+    protected Visualizer.OnDataCaptureListener mCaptureListener;
     protected int mAudioSessionId;
+    protected int mCaptureRate = PulseQualityGovernor
+            .getCaptureRate(PulseQualityGovernor.TIER_FULL);
 
     // manage stream validation
     protected int mConsecutiveFrames;
@@ -55,10 +62,14 @@ public class VisualizerStreamHandler {
     protected boolean mIsAnalyzed;
     protected boolean mIsPrepared;
     protected boolean mIsPaused;
+    // optimistic start: render on the first non-empty frame while validating
+    protected boolean mOptimisticStart;
+    protected boolean mIsProvisional;
 
     protected Context mContext;
     protected PulseController mController;
     protected Listener mListener;
+    protected PulseStats mStats;
 
     private Handler mHandler = new Handler() {
         @Override
@@ -68,14 +79,24 @@ public class VisualizerStreamHandler {
                     mIsAnalyzed = true;
                     mIsValidated = true;
                     mIsPrepared = false;
+                    mIsProvisional = false;
+                    mStats.streamsValid.incrementAndGet();
                     mListener.onStreamAnalyzed(true);
                     break;
                 case MSG_STREAM_INVALID:
                     mIsAnalyzed = true;
                     mIsValidated = false;
                     mIsPrepared = false;
+                    mIsProvisional = false;
+                    mStats.streamsInvalid.incrementAndGet();
                     mListener.onStreamAnalyzed(false);
                     break;
+                case MSG_STREAM_PROVISIONAL:
+                    if (mIsProvisional && !mIsAnalyzed) {
+                        mStats.streamsProvisional.incrementAndGet();
+                        mListener.onStreamProvisional();
+                    }
+                    break;
             }
         }
     };
@@ -85,6 +106,7 @@ public class VisualizerStreamHandler {
         mContext = context;
         mController = controller;
         mListener = listener;
+        mStats = controller.getStats();
     }
 
     /**
@@ -112,13 +134,13 @@ public class VisualizerStreamHandler {
             mVisualizer.setEnabled(false);
             mVisualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
 
-            Visualizer.OnDataCaptureListener captureListener = new Visualizer.OnDataCaptureListener() {
+            mCaptureListener = new Visualizer.OnDataCaptureListener() {
                 @Override
                 public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes,
                         int samplingRate) {
                     if (ENABLE_WAVEFORM) {
                         analyze(bytes);
-                        if (isValidStream() && !mIsPaused) {
+                        if (shouldDispatch()) {
                             mListener.onWaveFormUpdate(bytes);
                         }
                     }
@@ -127,18 +149,22 @@ public class VisualizerStreamHandler {
                 @Override
                 public void onFftDataCapture(Visualizer visualizer, byte[] bytes,
                         int samplingRate) {
+                    mStats.framesCaptured.incrementAndGet();
                     analyze(bytes);
-                    if (isValidStream() && !mIsPaused) {
+                    if (shouldDispatch()) {
+                        mStats.framesDispatched.incrementAndGet();
                         mListener.onFFTUpdate(bytes);
+                    } else {
+                        mStats.framesDropped.incrementAndGet();
                     }
                 }
             };
 
-            mVisualizer.setDataCaptureListener(captureListener,
-                    (int) (Visualizer.getMaxCaptureRate() * 0.75), true, true);
+            mVisualizer.setDataCaptureListener(mCaptureListener, getCaptureRate(), true, true);
 
         }
         mVisualizer.setEnabled(true);
+        mStats.links.incrementAndGet();
     }
 
     public final void unlink() {
@@ -147,18 +173,58 @@ public class VisualizerStreamHandler {
             mVisualizer.setEnabled(false);
             mVisualizer.release();
             mVisualizer = null;
+            mCaptureListener = null;
             resetAnalyzer();
+            mStats.unlinks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Set the capture rate. Renderers interpolate between captures, so this
+     * can stay well below the display refresh rate. If we are linked, the
+     * new rate is applied to the running capture
+     *
+     * @param rate - capture rate in millihertz, clamped to what Visualizer supports
+     */
+    public void setCaptureRate(int rate) {
+        if (mCaptureRate == rate) {
+            return;
+        }
+        mCaptureRate = rate;
+        if (mVisualizer != null && mCaptureListener != null) {
+            // capture rate can only be changed while disabled
+            final boolean enabled = mVisualizer.getEnabled();
+            mVisualizer.setEnabled(false);
+            mVisualizer.setDataCaptureListener(mCaptureListener, getCaptureRate(), true, true);
+            mVisualizer.setEnabled(enabled);
         }
     }
 
+    private int getCaptureRate() {
+        return Math.max(1, Math.min(Visualizer.getMaxCaptureRate(), mCaptureRate));
+    }
+
     public boolean isValidStream() {
         return mIsAnalyzed && mIsValidated;
     }
 
+    /**
+     * @return true if we are rendering ahead of validation in optimistic mode
+     */
+    public boolean isProvisionalStream() {
+        return mIsProvisional && !mIsAnalyzed;
+    }
+
+    public void setOptimisticStart(boolean optimistic) {
+        mOptimisticStart = optimistic;
+    }
+
     public void resetAnalyzer() {
+        mHandler.removeMessages(MSG_STREAM_PROVISIONAL);
         mIsAnalyzed = false;
         mIsValidated = false;
         mIsPrepared = false;
+        mIsProvisional = false;
         mConsecutiveFrames = 0;
     }
 
@@ -185,15 +251,27 @@ public class VisualizerStreamHandler {
             mConsecutiveFrames = 0;
         } else {
             mConsecutiveFrames++;
+            if (mOptimisticStart && !mIsProvisional) {
+                // silent sessions never get here, so nothing flashes for them
+                mIsProvisional = true;
+                mHandler.sendEmptyMessage(MSG_STREAM_PROVISIONAL);
+            }
         }
 
         if (mConsecutiveFrames == VALID_BYTES_THRESHOLD) {
-            mIsPaused = true;
+            // already rendering if provisional, keep the frames coming
+            if (!mIsProvisional) {
+                mIsPaused = true;
+            }
             mHandler.removeMessages(MSG_STREAM_INVALID);
             mHandler.sendEmptyMessage(MSG_STREAM_VALID);
         }
     }
 
+    private boolean shouldDispatch() {
+        return (isValidStream() || isProvisionalStream()) && !mIsPaused;
+    }
+
     private boolean isDataEmpty(byte[] data) {
         for (int i = 0; i < data.length; i++) {
             if (data[i] != 0) {
@@ -60,6 +60,7 @@ import com.android.systemui.navigation.smartbar.SmartBarHelper;
 import com.android.systemui.navigation.smartbar.SmartBarTransitions;
 import com.android.systemui.navigation.smartbar.SmartBarView;
 import com.android.systemui.navigation.smartbar.SmartButtonView;
+import com.android.systemui.navigation.utils.ActionIntentCache;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.R;
@@ -418,6 +419,7 @@ public class SmartBarView extends BaseNavigationBar {
         }
         recreateButtonLayout(buttonConfigs, false, true);
         recreateButtonLayout(buttonConfigs, true, false);
+        prefetchIntents(buttonConfigs);
         mContextLeft = mCurrentView.findViewWithTag(Res.Softkey.CONTEXT_VIEW_LEFT);
         mContextRight = mCurrentView.findViewWithTag(Res.Softkey.CONTEXT_VIEW_RIGHT);
         mCurrentContext = mHasLeftContext ? mContextLeft : mContextRight;
@@ -429,6 +431,16 @@ public class SmartBarView extends BaseNavigationBar {
         updateButtonAlpha();
     }
 
+    private void prefetchIntents(ArrayList<ButtonConfig> buttonConfigs) {
+        final ArrayList<String> actions = new ArrayList<String>();
+        for (ButtonConfig button : buttonConfigs) {
+            actions.add(button.getActionConfig(ActionConfig.PRIMARY).getAction());
+            actions.add(button.getActionConfig(ActionConfig.SECOND).getAction());
+            actions.add(button.getActionConfig(ActionConfig.THIRD).getAction());
+        }
+        ActionIntentCache.getInstance(getContext()).prefetch(actions);
+    }
+
     @Override
     protected void onDispose() {
         if (mEditor != null) {
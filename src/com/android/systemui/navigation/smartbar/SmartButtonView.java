@@ -20,6 +20,7 @@ package com.android.systemui.navigation.smartbar;
 
 import com.android.systemui.navigation.smartbar.SmartBarView;
 import com.android.systemui.navigation.smartbar.SmartButtonRipple;
+import com.android.systemui.navigation.utils.ActionExecutor;
 import com.android.internal.utils.du.ActionHandler;
 import com.android.internal.utils.du.Config.ActionConfig;
 import com.android.internal.utils.du.Config.ButtonConfig;
@@ -154,7 +155,7 @@ public class SmartButtonView extends ImageView {
         final boolean keyguardShowing = mHost.isKeyguardShowing();
         if (!keyguardShowing
                 || (keyguardShowing && ActionHandler.SYSTEMUI_TASK_BACK.equals(action))) {
-            ActionHandler.performTask(mContext, action);
+            ActionExecutor.getInstance().execute(mContext, action);
         }
     }
 
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Runs navbar actions on a dedicated worker so app launches, screenshots
+ * and key injection don't stall touch handling. Only those actions are
+ * known to be safe off the main looper, everything else ActionHandler does
+ * (dialogs, toasts, StatusBar and IME calls) still runs on the UI thread,
+ * right away when nothing is queued, else handed back there by the worker
+ * in turn. Feedback stays with the caller on the UI thread. Actions always
+ * run in the order they were fired, since launching an app and then going
+ * home must not end with the app on top. Navigation keys are urgent: while
+ * one is queued the worker runs at a higher thread priority, so whatever
+ * is ahead of it finishes sooner. App actions already resolved by
+ * ActionIntentCache launch straight from the cache
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import com.android.internal.utils.du.ActionHandler;
+
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ActionExecutor {
+    private static final String TAG = ActionExecutor.class.getSimpleName();
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_URGENT = 1;
+    private static final int PRIORITY_COUNT = 2;
+    private static final String[] PRIORITY_NAMES = { "normal", "urgent" };
+    private static final int THREAD_PRIORITY = Process.THREAD_PRIORITY_DISPLAY;
+    private static final int THREAD_PRIORITY_BOOSTED = Process.THREAD_PRIORITY_URGENT_DISPLAY;
+
+    private static ActionExecutor sInstance;
+
+    private final Handler mWorker;
+    private final Handler mMain = new Handler(Looper.getMainLooper());
+    private final int mWorkerTid;
+    // guards the queue, mUrgentPending, mDrainPosted and worker priority
+    private final Object mLock = new Object();
+    private final ArrayDeque<Task> mQueue = new ArrayDeque<Task>();
+    // urgent tasks queued or running, the worker is boosted while any are
+    private int mUrgentPending;
+    private boolean mDrainPosted;
+
+    // time from execute() until the task started, and how long it ran
+    private final TimingHistogram[] mQueueTime = new TimingHistogram[PRIORITY_COUNT];
+    private final TimingHistogram[] mRunTime = new TimingHistogram[PRIORITY_COUNT];
+    private final AtomicLong mFailures = new AtomicLong();
+
+    private static final class Task {
+        final Context context;
+        final String action;
+        final int priority;
+        final boolean onMain;
+        final long queuedNanos;
+
+        Task(Context context, String action, int priority) {
+            this.context = context;
+            this.action = action;
+            this.priority = priority;
+            onMain = !isWorkerSafe(action);
+            queuedNanos = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final Task task;
+                synchronized (mLock) {
+                    task = mQueue.poll();
+                    if (task == null) {
+                        mDrainPosted = false;
+                        return;
+                    }
+                }
+                perform(task);
+                if (task.priority == PRIORITY_URGENT) {
+                    synchronized (mLock) {
+                        if (--mUrgentPending == 0) {
+                            Process.setThreadPriority(THREAD_PRIORITY);
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    private ActionExecutor() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueueTime[i] = new TimingHistogram();
+            mRunTime[i] = new TimingHistogram();
+        }
+        final HandlerThread thread = new HandlerThread(TAG, THREAD_PRIORITY);
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+        // valid once the looper is up
+        mWorkerTid = thread.getThreadId();
+    }
+
+    public static synchronized ActionExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ActionExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Navigation keys are cheap and what the user waits on most. Priority
+     * only decides how hard the worker runs, never the order
+     */
+    public static int getPriority(String action) {
+        if (ActionHandler.SYSTEMUI_TASK_BACK.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_HOME.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_MENU.equals(action)) {
+            return PRIORITY_URGENT;
+        }
+        return PRIORITY_NORMAL;
+    }
+
+    /**
+     * Actions audited to run off the main looper: key injection, app
+     * launches and screenshots. Anything else may touch UI or services
+     * that expect the main thread
+     */
+    static boolean isWorkerSafe(String action) {
+        return ActionHandler.SYSTEMUI_TASK_BACK.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_HOME.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_MENU.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_IME_NAVIGATION_LEFT.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_IME_NAVIGATION_RIGHT.equals(action)
+                || ActionHandler.SYSTEMUI_TASK_SCREENSHOT.equals(action)
+                || ActionIntentCache.isAppAction(action);
+    }
+
+    /**
+     * Run ActionHandler.performTask(context, action) in firing order, on
+     * the worker if the action is safe there. Call from the UI thread
+     */
+    public void execute(Context context, String action) {
+        final Task task = new Task(context, action, getPriority(action));
+        synchronized (mLock) {
+            if (!task.onMain || mDrainPosted) {
+                enqueueLocked(task);
+                return;
+            }
+        }
+        // nothing ahead of it, run it here like it always was
+        perform(task);
+    }
+
+    private void enqueueLocked(Task task) {
+        mQueue.add(task);
+        if (task.priority == PRIORITY_URGENT && mUrgentPending++ == 0) {
+            // hurry whatever is queued ahead of it
+            Process.setThreadPriority(mWorkerTid, THREAD_PRIORITY_BOOSTED);
+        }
+        if (!mDrainPosted) {
+            mDrainPosted = true;
+            mWorker.post(mDrain);
+        }
+    }
+
+    private void perform(final Task task) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        mQueueTime[task.priority].record(start - task.queuedNanos);
+        if (task.onMain && Looper.myLooper() != mMain.getLooper()) {
+            // our turn came, hand it back and hold later tasks until it ran
+            mMain.runWithScissors(new Runnable() {
+                @Override
+                public void run() {
+                    performTask(task);
+                }
+            }, 0);
+        } else {
+            performTask(task);
+        }
+        mRunTime[task.priority].record(SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    private void performTask(Task task) {
+        try {
+            if (!launchCached(task)) {
+                ActionHandler.performTask(task.context, task.action);
+            }
+        } catch (RuntimeException e) {
+            // one broken action shouldn't take every later one down with it
+            mFailures.incrementAndGet();
+            Log.e(TAG, "Action " + task.action + " failed", e);
+        }
+    }
+
+    /**
+     * Start an app action from its pre-resolved intent
+     *
+     * @return false if the action has to go through ActionHandler
+     */
+    private boolean launchCached(Task task) {
+        final ActionIntentCache cache = ActionIntentCache.getInstance(task.context);
+        final Intent intent = cache.getLaunchIntent(task.action);
+        if (intent == null) {
+            return false;
+        }
+        try {
+            task.context.startActivityAsUser(intent, UserHandle.CURRENT);
+            return true;
+        } catch (ActivityNotFoundException | SecurityException e) {
+            // target went away under us, let ActionHandler sort it out
+            cache.remove(task.action);
+            return false;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("    ActionExecutor {");
+        synchronized (mLock) {
+            pw.println("      queued=" + mQueue.size() + " urgent=" + mUrgentPending
+                    + " failures=" + mFailures.get());
+        }
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueueTime[i].dump(pw, "      ", PRIORITY_NAMES[i] + " queue");
+            mRunTime[i].dump(pw, "      ", PRIORITY_NAMES[i] + " run");
+        }
+        pw.println("    }");
+    }
+}
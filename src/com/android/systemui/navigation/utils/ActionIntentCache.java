@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * App launch actions resolved ahead of time. Bars hand over their bound
+ * actions when configs load and a background thread parses each intent
+ * uri and resolves it to an explicit component, so the gesture itself
+ * skips the parse and the package manager lookup. Package changes only
+ * re-resolve actions that target the changed package. Entries belong to
+ * the current user and are resolved again on a user switch. Actions that
+ * need the chooser are left to ActionHandler
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import com.android.internal.app.ResolverActivity;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.UserHandle;
+import android.text.TextUtils;
+
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ActionIntentCache {
+    private static final String TAG = ActionIntentCache.class.getSimpleName();
+    // every app action is an intent uri, system actions never are
+    private static final String INTENT_URI_MARKER = "#Intent;";
+    // what ActionHandler adds when it launches an app action
+    private static final int LAUNCH_FLAGS = Intent.FLAG_ACTIVITY_NEW_TASK;
+
+    private static ActionIntentCache sInstance;
+
+    private final Context mContext;
+    private final Handler mWorker;
+    // action -> launch target, guarded by itself
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    // user every entry was resolved for, guarded by mEntries
+    private int mUserId;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private static final class Entry {
+        // explicit launch intent, null if the action doesn't resolve
+        final Intent intent;
+        // package the action targets, if known
+        final String packageName;
+
+        Entry(Intent intent, String packageName) {
+            this.intent = intent;
+            this.packageName = packageName;
+        }
+    }
+
+    private final BroadcastReceiver mUserReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // on the worker, after anything resolving for the old user
+            final int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                    ActivityManager.getCurrentUser());
+            final ArrayList<String> actions;
+            synchronized (mEntries) {
+                if (userId == mUserId) {
+                    return;
+                }
+                mUserId = userId;
+                actions = new ArrayList<String>(mEntries.keySet());
+                mEntries.clear();
+            }
+            resolveAll(actions, userId);
+        }
+    };
+
+    private ActionIntentCache(Context context) {
+        mContext = context;
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+        mUserId = ActivityManager.getCurrentUser();
+        mContext.registerReceiverAsUser(mUserReceiver, UserHandle.ALL,
+                new IntentFilter(Intent.ACTION_USER_SWITCHED), null, mWorker);
+    }
+
+    public static synchronized ActionIntentCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ActionIntentCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public static boolean isAppAction(String action) {
+        return action != null && action.contains(INTENT_URI_MARKER);
+    }
+
+    /**
+     * Resolve any app actions in actions not cached yet, in the background
+     */
+    public void prefetch(Collection<String> actions) {
+        final ArrayList<String> pending = new ArrayList<String>();
+        final int userId;
+        synchronized (mEntries) {
+            userId = mUserId;
+            for (String action : actions) {
+                if (isAppAction(action) && !mEntries.containsKey(action)
+                        && !pending.contains(action)) {
+                    pending.add(action);
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                resolveAll(pending, userId);
+            }
+        });
+    }
+
+    /**
+     * @return a fresh copy of the launch intent for action, or null if it
+     *         isn't an app action or isn't resolved (yet)
+     */
+    public Intent getLaunchIntent(String action) {
+        if (!isAppAction(action)) {
+            return null;
+        }
+        final Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(action);
+        }
+        if (entry == null || entry.intent == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return new Intent(entry.intent);
+    }
+
+    /**
+     * Forget action, for when its cached target turned out stale
+     */
+    public void remove(String action) {
+        synchronized (mEntries) {
+            mEntries.remove(action);
+        }
+    }
+
+    /**
+     * Re-resolve actions targeting pkg, and retry the ones that didn't
+     * resolve before in case pkg is what they were missing
+     */
+    public void onPackageChanged(final String pkg) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<String> stale = new ArrayList<String>();
+                final int userId;
+                synchronized (mEntries) {
+                    userId = mUserId;
+                    for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                        final Entry target = entry.getValue();
+                        if (target.intent == null
+                                || TextUtils.equals(target.packageName, pkg)) {
+                            stale.add(entry.getKey());
+                        }
+                    }
+                }
+                resolveAll(stale, userId);
+            }
+        });
+    }
+
+    private void resolveAll(ArrayList<String> actions, int userId) {
+        for (String action : actions) {
+            final Entry entry = resolve(action, userId);
+            synchronized (mEntries) {
+                // resolved for a user we've switched away from since
+                if (userId == mUserId) {
+                    mEntries.put(action, entry);
+                }
+            }
+        }
+    }
+
+    private Entry resolve(String action, int userId) {
+        final Intent intent;
+        try {
+            intent = Intent.parseUri(action, 0);
+        } catch (URISyntaxException e) {
+            return new Entry(null, null);
+        }
+        final ComponentName component = intent.getComponent();
+        final String target = component != null ? component.getPackageName()
+                : intent.getPackage();
+        // what a plain startActivity would pick, like ActionHandler's launch
+        final ResolveInfo info = mContext.getPackageManager().resolveActivityAsUser(intent,
+                PackageManager.MATCH_DEFAULT_ONLY, userId);
+        if (info == null || info.activityInfo == null
+                || ResolverActivity.class.getName().equals(info.activityInfo.name)) {
+            // nothing, or several candidates and the user has to choose
+            return new Entry(null, target);
+        }
+        intent.setComponent(new ComponentName(info.activityInfo.packageName,
+                info.activityInfo.name));
+        intent.addFlags(LAUNCH_FLAGS);
+        return new Entry(intent, info.activityInfo.packageName);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("    ActionIntentCache {");
+        synchronized (mEntries) {
+            int resolved = 0;
+            for (Entry entry : mEntries.values()) {
+                if (entry.intent != null) {
+                    resolved++;
+                }
+            }
+            pw.println("      entries=" + mEntries.size() + " resolved=" + resolved
+                    + " hits=" + mHits.get() + " misses=" + mMisses.get());
+        }
+        pw.println("    }");
+    }
+}
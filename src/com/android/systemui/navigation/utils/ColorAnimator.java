@@ -15,12 +15,15 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  * 
- * Produce a smooth HSV color wheel type animation much like a LavaLamp
+ * Produce a smooth HSV color wheel type animation much like a LavaLamp.
+ * Can also run a one shot transition between two colors
  * 
  */
 
 package com.android.systemui.navigation.utils;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.graphics.Color;
 
@@ -32,6 +35,7 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
     }
 
     public static final int ANIM_DEF_DURATION = 10 * 1000;
+    public static final int TRANSITION_DEF_DURATION = 600;
     public static final String RED = "#ffff8080";
     public static final String BLUE = "#ff8080ff";
 
@@ -65,6 +69,18 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
         mToColor = toColor;
         mColorAnim = valueAnimator;
         mColorAnim.addUpdateListener(this);
+        mColorAnim.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // one shot transition finished on its own
+                if (mIsRunning) {
+                    mIsRunning = false;
+                    if (mListener != null) {
+                        mListener.onStopAnimation(ColorAnimator.this, mLastColor);
+                    }
+                }
+            }
+        });
     }
 
     public void start() {
@@ -81,10 +97,26 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
         mIsRunning = true;
     }
 
+    /**
+     * Animate once from fromColor to toColor, then stop
+     */
+    public void transition(int fromColor, int toColor) {
+        stop();
+        Color.colorToHSV(fromColor, from);
+        Color.colorToHSV(toColor, to);
+        mColorAnim.setDuration(TRANSITION_DEF_DURATION);
+        mColorAnim.setRepeatCount(0);
+        if (mListener != null) {
+            mListener.onStartAnimation(this, fromColor);
+        }
+        mIsRunning = true;
+        mColorAnim.start();
+    }
+
     public void stop() {
         if (mColorAnim.isStarted()) {
-            mColorAnim.end();
             mIsRunning = false;
+            mColorAnim.end();
             if (mListener != null) {
                 mListener.onStopAnimation(this, mLastColor);
             }
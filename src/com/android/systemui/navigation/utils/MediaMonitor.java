@@ -22,6 +22,7 @@ package com.android.systemui.navigation.utils;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.content.Context;
+import android.media.MediaMetadata;
 import android.media.session.MediaController;
 import android.media.session.MediaSession;
 import android.media.session.MediaSessionManager;
@@ -34,7 +35,8 @@ import java.util.Map;
 
 /**
  * Helper class which does the bookkeeping on media sessions
- * and reports when the current play state changes via {@link #onPlayStateChanged(boolean)}
+ * and reports when the current play state changes via {@link #onPlayStateChanged(boolean)}.
+ * Metadata of playing sessions is reported via {@link #onPlayingMetadataChanged}
  */
 public abstract class MediaMonitor implements MediaSessionManager.OnActiveSessionsChangedListener {
 
@@ -52,6 +54,26 @@ public abstract class MediaMonitor implements MediaSessionManager.OnActiveSessio
 
     public abstract void onPlayStateChanged(boolean playing);
 
+    /**
+     * A playing session changed tracks or started playing
+     *
+     * @param token - session the metadata belongs to
+     * @param metadata - current metadata, may be null
+     */
+    public void onPlayingMetadataChanged(MediaSession.Token token,
+            @Nullable MediaMetadata metadata) {
+    }
+
+    /**
+     * Report metadata of every playing session again, for clients that
+     * start caring about it while something is already playing
+     */
+    public void notifyPlayingMetadata() {
+        for (Map.Entry<MediaSession.Token, CallbackInfo> entry : mCallbacks.entrySet()) {
+            entry.getValue().notifyMetadataIfPlaying();
+        }
+    }
+
     public boolean isAnythingPlaying() {
         return mIsAnythingPlaying;
     }
@@ -120,14 +142,33 @@ public abstract class MediaMonitor implements MediaSessionManager.OnActiveSessio
 
                 @Override
                 public void onPlaybackStateChanged(@NonNull PlaybackState state) {
+                    final boolean wasPlaying = mIsPlaying;
                     mIsPlaying = state.getState() == PlaybackState.STATE_PLAYING;
                     checkIfPlaying();
+                    if (mIsPlaying && !wasPlaying) {
+                        notifyMetadataIfPlaying();
+                    }
+                }
+
+                @Override
+                public void onMetadataChanged(@Nullable MediaMetadata metadata) {
+                    if (mIsPlaying && mListening) {
+                        onPlayingMetadataChanged(mController.getSessionToken(), metadata);
+                    }
                 }
             };
             controller.registerCallback(mCallback);
 
             mIsPlaying = controller.getPlaybackState() != null
                     && controller.getPlaybackState().getState() == PlaybackState.STATE_PLAYING;
+            notifyMetadataIfPlaying();
+        }
+
+        void notifyMetadataIfPlaying() {
+            if (mIsPlaying && mListening && mController != null) {
+                onPlayingMetadataChanged(mController.getSessionToken(),
+                        mController.getMetadata());
+            }
         }
 
         public boolean isPlaying() {
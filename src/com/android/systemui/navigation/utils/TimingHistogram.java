@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * @author: Randall Rushing <randall.rushing@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Lock free histogram of durations for dumpsys. Log2 buckets of
+ * microseconds: bucket 0 is under 1us, bucket n holds [2^(n-1), 2^n) us,
+ * the last bucket takes everything longer
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class TimingHistogram {
+    private static final int BUCKETS = 20;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public void dump(PrintWriter pw, String indent, String name) {
+        final long count = mCount.get();
+        pw.print(indent + name + ": count=" + count);
+        if (count > 0) {
+            pw.print(" avg=" + (mTotalNanos.get() / count / 1000) + "us"
+                    + " max=" + (mMaxNanos.get() / 1000) + "us");
+        }
+        pw.println();
+        if (count == 0) {
+            return;
+        }
+        final StringBuilder sb = new StringBuilder(indent).append("  ");
+        for (int i = 0; i < BUCKETS; i++) {
+            final long n = mBuckets.get(i);
+            if (n == 0) {
+                continue;
+            }
+            sb.append(i == 0 ? "<1" : (i == BUCKETS - 1 ? ">=" : "<") + bucketLimit(i))
+                    .append("us=").append(n).append(' ');
+        }
+        pw.println(sb.toString());
+    }
+
+    private static long bucketLimit(int bucket) {
+        return bucket == BUCKETS - 1 ? 1L << (bucket - 1) : 1L << bucket;
+    }
+}